@@ -0,0 +1,348 @@
+package zircon;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import zircon.Zircon.Ast;
+import zircon.Zircon.Frame;
+import zircon.Zircon.One;
+import zircon.Zircon.World;
+import zircon.Zircon.ZrAnd;
+import zircon.Zircon.ZrAssign;
+import zircon.Zircon.ZrBinaryOperator;
+import zircon.Zircon.ZrBoolean;
+import zircon.Zircon.ZrIf;
+import zircon.Zircon.ZrNumber;
+import zircon.Zircon.ZrOr;
+import zircon.Zircon.ZrPrefix;
+import zircon.Zircon.ZrPrimitive;
+import zircon.Zircon.ZrReturn;
+import zircon.Zircon.ZrString;
+import zircon.Zircon.ZrSymbol;
+
+/**
+ * 構文木をメソッドハンドルの木に変換するコンパイラ
+ * （メソッドハンドルはJDKがバイトコードに変換するため、JITが構文木をまたいでインライン展開できる）
+ * 変数はコンパイル時に添字を割り当て、実行時は{@link Frame}の配列を直接参照する
+ */
+class Compiler {
+
+    /**
+     * 変数名と添字の対応（変換中に追加）
+     */
+    final Map<String, Integer> scope = new LinkedHashMap<>();
+
+    /**
+     * 最上位の変数名と添字の対応（変更不可）
+     */
+    final Map<String, Integer> slots;
+
+    /**
+     * 文の変換結果
+     */
+    final MethodHandle[] code;
+
+    /**
+     * コンストラクタ
+     * @param statements 文の構文木リスト
+     */
+    Compiler(List<Ast> statements) {
+        this.code = compile(statements.toArray(new Ast[] {}));
+        this.slots = Collections.unmodifiableMap(scope);
+    }
+
+    /**
+     * @return 最上位の変数を格納する環境
+     */
+    Frame newFrame() {
+        return newFrame(null);
+    }
+
+    /**
+     * @param outer 外側の環境(null可)
+     * @return このプログラム用の環境
+     */
+    Frame newFrame(World outer) {
+        return new Frame(outer, slots);
+    }
+
+    /**
+     * @param world 環境
+     * @return このプログラム用の環境（違う場合は外側に指定の環境を持つ環境）
+     */
+    Frame frame(World world) {
+        return world instanceof Frame && ((Frame) world).slots == slots ? (Frame) world : new Frame(world, slots);
+    }
+
+    /**
+     * 変数の添字を解決する（未定義の場合は新たに割り当てる）
+     * @param name 変数名
+     * @return 添字
+     */
+    int resolve(String name) {
+        return scope.computeIfAbsent(name, k -> scope.size());
+    }
+
+    /**
+     * 変換結果の型 (World)Object
+     */
+    static final MethodType type = MethodType.methodType(Object.class, World.class);
+
+    /**
+     * Ast#calc(World)
+     */
+    static final MethodHandle calc;
+
+    /**
+     * ZrIf#truth(Object)
+     */
+    static final MethodHandle truth;
+
+    /**
+     * 接頭辞クラスの演算メソッドの型 (Object)Object
+     */
+    static final MethodType prefix = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * 演算子クラスの演算メソッドの型 (Object, Object)Object
+     */
+    static final MethodType operator = MethodType.methodType(Object.class, Object.class, Object.class);
+
+    /**
+     * Compiler#step(World)
+     */
+    static final MethodHandle step;
+
+    /**
+     * Compiler#load(int, int, ZrSymbol, World)
+     */
+    static final MethodHandle load;
+
+    /**
+     * Compiler#store(int, int, String, World, Object)
+     */
+    static final MethodHandle store;
+
+    /**
+     * ZrPrimitive#apply(World, Object, Object[]) を (Object, Object[], World)Object にしたもの
+     */
+    static final MethodHandle call;
+
+    /**
+     * 配列の恒等関数 (Object[])Object[]
+     */
+    static final MethodHandle array = MethodHandles.identity(Object[].class);
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            calc = lookup.findVirtual(Ast.class, "calc", type);
+            truth = lookup.findStatic(ZrIf.class, "truth", MethodType.methodType(boolean.class, Object.class));
+            step = lookup.findStatic(Compiler.class, "step", MethodType.methodType(void.class, World.class));
+            load = lookup.findStatic(Compiler.class, "load", MethodType.methodType(Object.class, int.class, ZrSymbol.class, World.class));
+            store = lookup.findStatic(Compiler.class, "store",
+                    MethodType.methodType(Object.class, int.class, String.class, World.class, Object.class));
+            call = MethodHandles.permuteArguments(
+                    lookup.findStatic(ZrPrimitive.class, "apply",
+                            MethodType.methodType(Object.class, World.class, Object.class, Object[].class)),
+                    MethodType.methodType(Object.class, Object.class, Object[].class, World.class), 2, 0, 1);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 変換
+     * @param ast 構文木
+     * @return (World)Object のメソッドハンドル
+     */
+    MethodHandle compile(Ast ast) {
+        MethodHandle code = node(ast);
+        // 構文木の評価と同じく、節ごとに実行制限を確認する
+        return code == null ? calc.bindTo(ast) : MethodHandles.foldArguments(code, step);
+    }
+
+    /**
+     * 節の変換
+     * @param ast 構文木
+     * @return (World)Object のメソッドハンドル（変換しない場合はnull）
+     */
+    MethodHandle node(Ast ast) {
+        if (ast instanceof ZrBoolean || ast instanceof ZrNumber || ast instanceof ZrString) {
+            return constant(((One<?>) ast).value);
+        }
+        if (ast instanceof ZrReturn) {
+            return compile(ast.children.get(0));
+        }
+        if (ast instanceof ZrPrefix) {
+            return MethodHandles.filterArguments(operate(ast.getClass(), prefix), 0, compile(((ZrPrefix) ast).value));
+        }
+        if (ast instanceof ZrSymbol) {
+            return MethodHandles.insertArguments(load, 0, resolve(((ZrSymbol) ast).value), ast);
+        }
+        if (ast instanceof ZrAssign) {
+            ZrAssign assign = (ZrAssign) ast;
+            MethodHandle value = compile(assign.right);
+            MethodHandle store = MethodHandles.insertArguments(Compiler.store, 0, resolve(assign.name), assign.name);
+            return MethodHandles.permuteArguments(MethodHandles.filterArguments(store, 1, value), type, 0, 0);
+        }
+        if (ast instanceof ZrAnd) {
+            ZrAnd and = (ZrAnd) ast;
+            return MethodHandles.guardWithTest(test(and.left), test(and.right).asType(type), constant(false));
+        }
+        if (ast instanceof ZrOr) {
+            ZrOr or = (ZrOr) ast;
+            return MethodHandles.guardWithTest(test(or.left), constant(true), test(or.right).asType(type));
+        }
+        if (ast instanceof ZrBinaryOperator) {
+            // 左辺、右辺の順に評価する
+            ZrBinaryOperator b = (ZrBinaryOperator) ast;
+            return MethodHandles.foldArguments(MethodHandles.filterArguments(operate(ast.getClass(), operator), 1, compile(b.right)),
+                    compile(b.left));
+        }
+        if (ast instanceof ZrIf) {
+            int size = ast.children.size();
+            MethodHandle r = size % 2 == 0 ? constant(null) : compile(ast.children.get(size - 1));
+            for (int i = size / 2 * 2 - 2; i >= 0; i -= 2) {
+                r = MethodHandles.guardWithTest(test(ast.children.get(i)), compile(ast.children.get(i + 1)), r);
+            }
+            return r;
+        }
+        if (ast instanceof ZrPrimitive) {
+            // 呼び出し対象、引数の順に評価する
+            MethodHandle arguments = evaluate(compile(ast.children.toArray(new Ast[] {})));
+            MethodHandle apply = MethodHandles.permuteArguments(MethodHandles.filterArguments(call, 1, arguments),
+                    MethodType.methodType(Object.class, Object.class, World.class), 0, 1, 1);
+            return MethodHandles.foldArguments(apply, compile(((ZrPrimitive) ast).value));
+        }
+        if (ast.getClass() == Ast.class) {
+            return evaluate(compile(ast.children.toArray(new Ast[] {}))).asType(type);
+        }
+        return null; // その他は構文木の評価をそのまま使う
+    }
+
+    /**
+     * @param ast 条件の構文木
+     * @return (World)boolean のメソッドハンドル
+     */
+    MethodHandle test(Ast ast) {
+        return MethodHandles.filterReturnValue(compile(ast), truth);
+    }
+
+    /**
+     * 演算子クラスの演算メソッドを取得
+     * @param c 演算子クラス
+     * @param type 演算メソッドの型
+     * @return 演算メソッド
+     */
+    static MethodHandle operate(Class<?> c, MethodType type) {
+        try {
+            return MethodHandles.lookup().findStatic(c, "operate", type);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param asts 構文木
+     * @return 変換結果
+     */
+    MethodHandle[] compile(Ast... asts) {
+        MethodHandle[] r = new MethodHandle[asts.length];
+        for (int i = 0; i < asts.length; i++) {
+            r[i] = compile(asts[i]);
+        }
+        return r;
+    }
+
+    /**
+     * @param value 値
+     * @return 常に値を返す (World)Object のメソッドハンドル
+     */
+    static MethodHandle constant(Object value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0, World.class);
+    }
+
+    /**
+     * 全要素を左から順に評価して配列にする（{@link Ast#calc(World)}に相当）
+     * 要素ごとの変換結果を折り畳むため、実行時に配列からメソッドハンドルを取り出さない
+     * @param codes 要素の変換結果
+     * @return (World)Object[] のメソッドハンドル
+     */
+    static MethodHandle evaluate(MethodHandle[] codes) {
+        int n = codes.length;
+        // (r[n-1], ..., r[0], World)Object[]
+        int[] reorder = new int[n];
+        for (int i = 0; i < n; i++) {
+            reorder[i] = n - 1 - i;
+        }
+        MethodHandle r = MethodHandles.permuteArguments(array.asCollector(Object[].class, n),
+                MethodType.genericMethodType(n).changeReturnType(Object[].class), reorder);
+        r = MethodHandles.dropArguments(r, n, World.class);
+        // 外側の畳み込みほど先に実行されるため、r[0]を最も外側にする
+        for (int i = n - 1; i >= 0; i--) {
+            r = MethodHandles.foldArguments(r, MethodHandles.dropArguments(codes[i], 0, Collections.nCopies(i, Object.class)));
+        }
+        return r;
+    }
+
+    /**
+     * 実行制限の確認
+     * @param world 環境
+     */
+    static void step(World world) {
+        world.governor.step();
+    }
+
+    /**
+     * 変数の値を取得
+     * @param slot 添字
+     * @param symbol 変数
+     * @param world 環境
+     * @return 値（未定義の場合は外側を検索）
+     */
+    static Object load(int slot, ZrSymbol symbol, World world) {
+        Frame frame = world instanceof Frame ? (Frame) world : null;
+        Object value = frame == null ? null : frame.values[slot];
+        return value != null ? value : ZrSymbol.load(world, symbol.value, symbol);
+    }
+
+    /**
+     * 変数に代入（{@link World#put(String, Object)}と同様に外側で定義済みなら外側を更新）
+     * @param slot 添字
+     * @param name 変数名
+     * @param world 環境
+     * @param value 値
+     * @return 値
+     */
+    static Object store(int slot, String name, World world, Object value) {
+        Frame frame = world instanceof Frame ? (Frame) world : null;
+        if (frame != null && (frame.values[slot] != null || frame.outer == null || frame.outer.lookup(name) == null)) {
+            frame.values[slot] = value;
+        } else {
+            world.put(name, value);
+        }
+        return value;
+    }
+
+    /**
+     * 実行
+     * @param code 変換結果
+     * @param world 環境
+     * @return 評価結果
+     */
+    static Object invoke(MethodHandle code, World world) {
+        try {
+            return (Object) code.invokeExact(world);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
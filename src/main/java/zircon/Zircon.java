@@ -1,15 +1,27 @@
 package zircon;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.lang.reflect.InvocationTargetException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
-import java.util.AbstractMap;
+import java.math.MathContext;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -17,10 +29,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import zircon.util.LogFormatter;
 
@@ -49,9 +64,18 @@ public class Zircon {
      * @param source ソース
      */
     public static String get(String source) {
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream(); PrintStream stream = new PrintStream(out)) {
-            run(source, null, stream);
-            return out.toString();
+        return get(source, mode);
+    }
+
+    /**
+     * 実行して標準出力を取得
+     * @param source ソース
+     * @param mode 実行方式
+     */
+    public static String get(String source, Mode mode) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            run(source, null, out, mode, Limits.standard, Output.standard);
+            return out.toString(utf8);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -65,863 +89,2957 @@ public class Zircon {
      * @param out 標準出力
      */
     public static void run(String source, Consumer<Dictionary> config, PrintStream out) {
-        Logger.getLogger(Zircon.class.getName()).info(source);
-        World world = new World(null);
-        try {
-            world.put("$", world).put("echo", new ZrNative(PrintStream.class.getMethod("println", Object.class), out))
-                    .put("print", new ZrNative(PrintStream.class.getMethod("print", Object.class), out))
-                    .put("env", new Can(m -> Optional.ofNullable(System.getenv())
-                            .ifPresent(env -> env.entrySet().stream().forEach(i -> m.put(i.getKey(), i.getValue())))));
-        } catch (NoSuchMethodException | SecurityException e) {
-            e.printStackTrace();
-        }
-        if (config != null)
-            config.accept(world);
-        for (Ast ast : new Parser(source)) {
-            if (ast != null) {
-                Logger.getLogger(Zircon.class.getName()).info("" + ast);
-                System.err.println("#> " + ast.calc(world));
-            }
-        }
+        run(source, config, out, mode);
     }
 
     /**
-     * @param setter
-     * @return
+     * 実行
+     * @param source ソース
+     * @param config 初期設定
+     * @param out 標準出力
+     * @param mode 実行方式
      */
-    @SafeVarargs
-    public static Can can(Consumer<Can>... setter) {
-        return new Can(setter);
+    public static void run(String source, Consumer<Dictionary> config, PrintStream out, Mode mode) {
+        run(source, config, out, mode, Limits.standard);
     }
 
     /**
-     * 改行文字
+     * 実行
+     * @param source ソース
+     * @param config 初期設定
+     * @param out 標準出力
+     * @param mode 実行方式
+     * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
      */
-    static final String lineSeparator = System.lineSeparator();
+    public static void run(String source, Consumer<Dictionary> config, PrintStream out, Mode mode, Limits limits) {
+        run(source, config, out, mode, limits, Output.standard);
+    }
 
     /**
-     * 実行時エラー
-     * @param e 例外
-     * @return 実行時例外
+     * 実行
+     * @param source ソース
+     * @param config 初期設定
+     * @param out 標準出力
+     * @param mode 実行方式
+     * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
+     * @param output 出力方法
      */
-    static RuntimeException error(Exception e) {
-        return new RuntimeException(e);
+    public static void run(String source, Consumer<Dictionary> config, OutputStream out, Mode mode, Limits limits, Output output) {
+        logger.info(source);
+        compile(source, mode).run(config, out, mode, limits, output);
     }
 
     /**
-     * @author user
+     * 読み込みながら実行（最上位の文ごとに解析してすぐに評価するため、ソース全体を保持しない）
+     * 変数の割り当てにプログラム全体が必要なコンパイル実行は行わず、構文木を直接評価する
+     * @param source ソース
+     * @param config 初期設定
+     * @param out 標準出力
+     * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
+     * @return 最後の文の評価結果
      */
-    static class Parser implements Iterable<Ast> {
+    public static Object run(Reader source, Consumer<Dictionary> config, OutputStream out, Limits limits) {
+        return run(source, config, out, limits, Output.standard);
+    }
 
-        /**
-         * 空白
-         */
-        static final int[] spaces = { ' ', '\t' };
+    /**
+     * 読み込みながら実行（最上位の文ごとに解析してすぐに評価するため、ソース全体を保持しない）
+     * @param source ソース
+     * @param config 初期設定
+     * @param out 標準出力
+     * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
+     * @param output 出力方法
+     * @return 最後の文の評価結果
+     */
+    public static Object run(Reader source, Consumer<Dictionary> config, OutputStream out, Limits limits, Output output) {
+        try (Sink sink = output.open(out, limits.output)) {
+            World world = newWorld(new World(base), sink);
+            world.governor = new Governor(limits);
+            if (config != null)
+                config.accept(world);
+            Object result = null;
+            for (Ast ast : new Parser(source)) {
+                result = ast.calc(world);
+                Sink.statement(sink, result);
+            }
+            return result;
+        }
+    }
 
-        /**
-         * 改行
-         */
-        static final int[] newlines = { '\r', '\n' };
+    /**
+     * コンパイル（同じソースはキャッシュ済みのプログラムを返す）
+     * @param source ソース
+     * @return プログラム
+     */
+    public static Program compile(String source) {
+        return compile(source, mode);
+    }
 
-        /**
-         * 数字
-         */
-        static final int[] digits = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' };
+    /**
+     * コンパイル（同じソースはキャッシュ済みのプログラムを返す）
+     * @param source ソース
+     * @param mode 実行方式（COMPILERの場合はメソッドハンドルへの変換まで行う）
+     * @return プログラム
+     */
+    public static Program compile(String source, Mode mode) {
+        Program program = programs.get(source);
+        if (mode == Mode.COMPILER)
+            program.compiler();
+        return program;
+    }
 
+    /**
+     * 実行方式
+     */
+    public enum Mode {
         /**
-         * 記号('!', '$', '?'以外)
+         * 構文木を直接評価
          */
-        static final int[] marks = { '"', '#', '%', '&', '\'', '(', ')', '=', '-', '~', '^', '|', '\\', '`', '@', '{', '[', '+', '*', ':',
-                '}', ']', '<', ',', '>', '.', '/' };
-
+        INTERPRETER,
         /**
-         * 接頭辞
+         * 構文木をメソッドハンドルに変換して実行
          */
-        static final String[] prefixes = { "+", "-", "not", "exists", "empty" };
+        COMPILER
+    }
 
-        /**
-         * 演算子辞書(キー：演算子, 値:優先順位（正は左結合、負は右結合））
-         */
-        @SuppressWarnings("serial")
-        static final Map<String, Integer> operatorMap = new LinkedHashMap<String, Integer>() {
-            {
-                put(":", -1);
-                put("and", 2);
-                put("or", 2);
-                put("<=", 3);
-                put("<>", 3);
-                put("<", 3);
-                put("=", 3);
-                put(">=", 3);
-                put(">", 3);
-                put("is", 4);
-                put("in", 4);
-                put("&", 5);
-                put("+", 5);
-                put("-", 5);
-                put("*", 6);
-                put("/", 6);
-                put("%", 6);
-                put("\\", 6);
-                put("^", 7);
-            }
+    /**
+     * 既定の実行方式
+     */
+    public static final Mode mode = Mode.valueOf(System.getProperty("zircon.mode", Mode.INTERPRETER.name()));
+
+    /**
+     * コンパイル済みプログラムのキャッシュ
+     */
+    public static final ProgramCache programs = new ProgramCache(Integer.getInteger("zircon.cache.size", 256),
+            Integer.getInteger("zircon.cache.maxSourceLength", 64 * 1024));
+
+    /**
+     * 環境に実行ごとの組み込み関数を設定（出力先に依存しないものは{@link #base}に設定済み）
+     * @param world 環境
+     * @param out 標準出力
+     * @return 環境
+     */
+    static World newWorld(World world, PrintStream out) {
+        world.put("$", world).put("echo", new ZrNative("echo", println.bindTo(out))).put("print",
+                new ZrNative("print", print.bindTo(out)));
+        return world;
+    }
+
+    /**
+     * PrintStream#println(Object)
+     */
+    static final MethodHandle println;
+
+    /**
+     * PrintStream#print(Object)
+     */
+    static final MethodHandle print;
+
+    static {
+        try {
+            MethodType type = MethodType.methodType(void.class, Object.class);
+            println = MethodHandles.publicLookup().findVirtual(PrintStream.class, "println", type);
+            print = MethodHandles.publicLookup().findVirtual(PrintStream.class, "print", type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 登録済みのホスト関数
+     */
+    static final Map<String, ZrNative> natives = new HashMap<>();
+
+    /**
+     * 全ての実行で共有する環境（登録済みのホスト関数が変わるたびに作り直す）
+     */
+    static volatile Base base = new Base(natives);
+
+    /**
+     * ホスト関数を登録（以降の全ての実行でスクリプトから呼び出し可能）
+     * @param name 名前
+     * @param handle 呼び出し先（受け手は束縛済みであること）
+     */
+    public static synchronized void register(String name, MethodHandle handle) {
+        natives.put(name, new ZrNative(name, handle));
+        base = new Base(natives);
+    }
+
+    /**
+     * ホスト関数を登録（以降の全ての実行でスクリプトから呼び出し可能）
+     * @param name 名前
+     * @param method 公開メソッド
+     * @param object 受け手（staticメソッドの場合はnull）
+     */
+    public static void register(String name, Method method, Object object) {
+        register(name, ZrNative.bind(method, object));
+    }
+
+    /**
+     * 登録を解除
+     * @param name 名前
+     */
+    public static synchronized void unregister(String name) {
+        if (natives.remove(name) != null)
+            base = new Base(natives);
+    }
+
+    /**
+     * ホスト関数（初期設定でその実行だけに設定する場合に使用）
+     * @param name 名前
+     * @param handle 呼び出し先（受け手は束縛済みであること）
+     * @return スクリプトから呼び出せる値
+     */
+    public static Object function(String name, MethodHandle handle) {
+        return new ZrNative(name, handle);
+    }
+
+    /**
+     * ホスト関数（初期設定でその実行だけに設定する場合に使用）
+     * @param name 名前
+     * @param method 公開メソッド
+     * @param object 受け手（staticメソッドの場合はnull）
+     * @return スクリプトから呼び出せる値
+     */
+    public static Object function(String name, Method method, Object object) {
+        return function(name, ZrNative.bind(method, object));
+    }
+
+    /**
+     * ホスト関数の繰り返し処理で実行制限を確認する関数（初期設定で取得し、1回ごとに評価1ステップとして数え、時間と割り込みも確認）
+     * @param world 初期設定で渡された環境
+     * @return 確認する関数（実行の環境でない場合は割り込みのみ確認）
+     */
+    public static Runnable step(Dictionary world) {
+        if (world instanceof World) {
+            Governor governor = ((World) world).governor;
+            return governor::step;
+        }
+        return () -> {
+            if (Thread.currentThread().isInterrupted())
+                throw new LimitExceededException("interrupted", 0);
         };
+    }
 
-        /**
-         * 演算子
-         */
-        static final String[] operators = operatorMap.keySet().toArray(new String[] {});
+    /**
+     * スクリプトの関数またはホスト関数を呼び出す（ホスト関数から使用、実行制限は関数を定義した実行のもの）
+     * @param function 関数
+     * @param arguments 引数
+     * @return 呼び出し結果
+     */
+    public static Object call(Object function, Object... arguments) {
+        if (function instanceof ZrNative)
+            return ((ZrNative) function).invoke(arguments);
+        if (function instanceof ZrFunction) {
+            ZrFunction f = (ZrFunction) function;
+            World newWorld = f.newWorld();
+            for (int i = 0; i < arguments.length; i++) {
+                newWorld.put(f.name(i), arguments[i]);
+            }
+            return f.invoke(f.world.governor, newWorld);
+        }
+        throw new IllegalArgumentException("not a function: " + function);
+    }
+
+    /**
+     * コンパイル済みプログラム（構文木は実行時に変更されないため複数スレッドで共有可能）
+     */
+    public static class Program {
 
         /**
          * ソース
          */
-        String source;
+        final String source;
 
         /**
-         * 最終位置
+         * 文の構文木リスト
          */
-        int lastIndex;
+        final List<Ast> statements;
 
         /**
-         * 現在位置
+         * コンストラクタ
+         * @param source ソース
          */
-        int index;
-
-        /* (non-Javadoc)
-         * @see java.lang.Iterable#iterator() */
-        @Override
-        public Iterator<Ast> iterator() {
-            return new Iterator<Ast>() {
-
-                /* (non-Javadoc)
-                 * @see java.util.Iterator#hasNext() */
-                @Override
-                public boolean hasNext() {
-                    return index < lastIndex;
-                }
-
-                /* (non-Javadoc)
-                 * @see java.util.Iterator#next() */
-                @Override
-                public Ast next() {
-                    return program();
+        Program(String source) {
+            this.source = source;
+            List<Ast> list = new ArrayList<>();
+            for (Ast ast : new Parser(source)) {
+                if (ast != null) {
+                    list.add(ast);
                 }
-
-            };
+            }
+            this.statements = Collections.unmodifiableList(list);
         }
 
         /**
-         * コンストラクタ
-         * @param source ソース
+         * メソッドハンドルに変換したプログラム（初回のコンパイル実行時に生成）
          */
-        Parser(String source) {
-            this.source = source;
-            this.lastIndex = source == null ? 0 : source.length();
-            this.index = 0;
-        }
+        volatile Compiler compiler;
 
         /**
-         * 許可文字かどうか
-         * @param allows 許可文字（省略時は全文字を許可文字とする）
-         * @return 現在位置の文字（'\0'は許可文字以外または終端）
+         * @return メソッドハンドルに変換したプログラム（複数スレッドから同時に呼ばれても一度だけ生成し、変数の割り当てを共有する）
          */
-        int peek(int... allows) {
-            if (index < lastIndex) {
-                int c = source.charAt(index);
-                if (allows == null || allows.length <= 0)
-                    return c;
-                for (int i : allows)
-                    if (i == c)
-                        return c;
+        Compiler compiler() {
+            Compiler compiler = this.compiler;
+            if (compiler == null) {
+                synchronized (this) {
+                    compiler = this.compiler;
+                    if (compiler == null)
+                        this.compiler = compiler = new Compiler(statements);
+                }
             }
-            return '\0';
+            return compiler;
         }
 
         /**
-         * 許可文字をスキップする
-         * @param allows 許可文字（省略時は空白文字）
-         * @return スキップした文字数
+         * 実行
+         * @param config 初期設定
+         * @param out 標準出力
          */
-        int skip(int... allows) {
-            if (allows == null || allows.length <= 0)
-                allows = spaces;
-            int start = index;
-            while (peek(allows) != '\0')
-                index++;
-            return index - start;
+        public void run(Consumer<Dictionary> config, PrintStream out) {
+            run(config, out, mode);
         }
 
         /**
-         * 許可文字をスキップする
-         * @param allows 許可文字（省略時は空白文字）
-         * @return スキップした文字数
+         * 実行
+         * @param config 初期設定
+         * @param out 標準出力
+         * @param mode 実行方式
          */
-        int skip(int[] a1, int[]... a2) {
-            int start = index;
-            List<int[]> list = new ArrayList<>();
-            list.add(a1);
-            for (int[] a : a2)
-                list.add(a);
-            while (!list.stream().map(this::peek).allMatch(i -> i == '\0'))
-                index++;
-            return index - start;
+        public void run(Consumer<Dictionary> config, PrintStream out, Mode mode) {
+            run(config, out, mode, Limits.standard);
         }
 
         /**
-         * 許可文字列をスキップ
-         * @param allows 許可文字列
-         * @return スキップした許可文字列（emptyの場合は許可文字列に一致しなかった）
+         * 実行
+         * @param config 初期設定
+         * @param out 標準出力
+         * @param mode 実行方式
+         * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
          */
-        Optional<String> eat(String... allows) {
-            skip();
-            outer: for (String i : allows == null ? new String[] {} : allows) {
-                int offset = 0;
-                for (int j : i.toCharArray()) {
-                    if (peek(j) == '\0')
-                        continue outer;
-                    offset++;
-                }
-                // シンボルの切れ目があるかどうかチェック
-                if (peek(marks) != 0 || peek(spaces) != 0 || peek(newlines) != 0) {
-                    skip();
-                    index += offset;
-                    return Optional.of(i);
-                }
-            }
-            return Optional.empty();
+        public void run(Consumer<Dictionary> config, PrintStream out, Mode mode, Limits limits) {
+            run(config, out, mode, limits, Output.standard);
         }
 
         /**
-         * 抽象構文木が取得できるか試す
-         * @param ast 抽象構文木取得メソッド
-         * @return 抽象構文木（エラー時はnull）
+         * 実行
+         * @param config 初期設定
+         * @param out 標準出力
+         * @param mode 実行方式
+         * @param limits 実行制限（超えた場合は{@link LimitExceededException}）
+         * @param output 出力方法
          */
-        Optional<Ast> test(Supplier<Ast> ast) {
-            int start = index;
-            try {
-                return Optional.of(ast.get());
-            } catch (RuntimeException e) {
-                Logger.getLogger(getClass().getName()).config("rollback " + index + " -> " + start);
-                index = start;
-                return Optional.empty();
+        public void run(Consumer<Dictionary> config, OutputStream out, Mode mode, Limits limits, Output output) {
+            try (Sink sink = output.open(out, limits.output)) {
+                World world = newWorld(mode == Mode.COMPILER ? compiler().newFrame(base) : new World(base), sink);
+                world.governor = new Governor(limits);
+                if (config != null)
+                    config.accept(world);
+                run(world, mode, sink);
             }
         }
 
         /**
-         * @return statement ( newlines | ';' | END_OF_SOURCE )
+         * 指定した環境で実行
+         * @param world 環境
+         * @param mode 実行方式
+         * @return 最後の文の評価結果
          */
-        Ast program() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            final int[] separators = { ';' };
-            Ast r = statement();
-            if (peek(newlines) == '\0' && peek(separators) == '\0' && peek() != '\0') {
-                throw error("excepted newline");
-            }
-            skip(newlines, separators);
-            return r;
+        Object run(World world, Mode mode) {
+            return run(world, mode, null);
         }
 
         /**
-         * if : 'if' expression block { 'ef' expression block } [ 'else' block ] for: 'for' ( block | expression block | symbol 'in'
-         * expression block ) do : 'do' [ symbol ] { ',' symbol } [ ',' ] ( ':' expression | block )
-         * @return [ 'return' ] ( if | for | do | simple )
+         * 指定した環境で実行
+         * @param world 環境
+         * @param mode 実行方式
+         * @param sink 文ごとに通知する出力先(null可)
+         * @return 最後の文の評価結果
          */
-        Ast statement() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            Optional<String> Return = eat("return");
-            Ast ast;
-            if (eat("if").isPresent()) {
-                List<Ast> list = new ArrayList<>();
-                list.add(expression());
-                list.add(block());
-                while (eat("ef").isPresent()) {
-                    list.add(expression());
-                    list.add(block());
+        Object run(World world, Mode mode, Sink sink) {
+            Object result = null;
+            if (mode == Mode.COMPILER) {
+                Compiler compiler = compiler();
+                Frame frame = compiler.frame(world);
+                for (MethodHandle code : compiler.code) {
+                    result = Compiler.invoke(code, frame);
+                    Sink.statement(sink, result);
                 }
-                if (eat("else").isPresent()) {
-                    list.add(block());
-                }
-                ast = new ZrIf(list.toArray(new Ast[] {}));
-                /* } else if (eat("for").isPresent()) { } else if (eat("do").isPresent()) { */
-
-            } else {
-                ast = simple();
+                return result;
+            }
+            for (Ast ast : statements) {
+                result = ast.calc(world);
+                Sink.statement(sink, result);
             }
-            return Return.<Ast> map(x -> new ZrReturn(ast)).orElse(ast);
+            return result;
         }
+    }
+
+    /**
+     * 実行制限（ステップ数、実行時間、呼び出しの深さ、出力バイト数）
+     */
+    public static class Limits {
 
         /**
-         * @return expression [ tuple ]
+         * 制限なし
          */
-        Ast simple() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            Ast e = expression();
-            return test(this::tuple).<Ast> map(t -> new ZrPrimitive(e, t.children.toArray(new Ast[] {}))).orElse(e);
-        }
+        public static final Limits NONE = new Limits(Long.MAX_VALUE, 0, Integer.MAX_VALUE, Long.MAX_VALUE);
 
         /**
-         * @return prefix { operator prefix }
+         * 既定の制限（システムプロパティ zircon.limit.steps, millis, depth, output で指定、省略時は制限なし）
          */
-        Ast expression() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            Ast right = prefix();
-            Optional<Map.Entry<String, Integer>> next;
-            while ((next = operator()).isPresent()) {
-                right = shift(right, next.get());
-            }
-            return right;
-        }
+        public static final Limits standard = new Limits(Long.getLong("zircon.limit.steps", NONE.steps),
+                Long.getLong("zircon.limit.millis", NONE.millis), Integer.getInteger("zircon.limit.depth", NONE.depth),
+                Long.getLong("zircon.limit.output", NONE.output));
 
         /**
-         * @return [ '+'|'-'|'not'|'exists'|'empty' ] primitive
+         * 最大評価ステップ数
          */
-        Ast prefix() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            return eat(prefixes).<Ast> map(p -> new ZrPrefix(new ZrSymbol(p), primitive())).orElseGet(() -> primitive());
-        }
+        final long steps;
 
         /**
-         * @return 次の演算子
+         * 最大実行時間（ミリ秒、0以下は制限なし）
          */
-        Optional<Map.Entry<String, Integer>> operator() {
-            return eat(operators).map(o -> new AbstractMap.SimpleEntry<String, Integer>(o, operatorMap.get(o)));
-        }
+        final long millis;
 
         /**
-         * @param left 左辺
-         * @param operatorEntry 演算子情報
-         * @return 二項演算
+         * 関数呼び出しの最大の深さ
          */
-        Ast shift(Ast left, Map.Entry<String, Integer> operatorEntry) {
-            Ast right = prefix();
-            Optional<Map.Entry<String, Integer>> next;
-            int value = operatorEntry.getValue();
-            while ((next = operator()).isPresent() && (value < 0 ? value <= next.get().getValue() : value < next.get().getValue())) {
-                right = shift(right, next.get());
-            }
-            return new ZrBinaryOperator(left, new ZrSymbol(operatorEntry.getKey()), right);
-        }
+        final int depth;
 
         /**
-         * @return ( 'true' | 'false' | argument | string | number | symbol ) { postfix }
+         * 最大出力バイト数
+         */
+        final long output;
+
+        /**
+         * コンストラクタ
+         * @param steps 最大評価ステップ数
+         * @param millis 最大実行時間（ミリ秒、0以下は制限なし）
+         * @param depth 関数呼び出しの最大の深さ
+         * @param output 最大出力バイト数
+         */
+        public Limits(long steps, long millis, int depth, long output) {
+            this.steps = steps;
+            this.millis = millis;
+            this.depth = depth;
+            this.output = output;
+        }
+
+    }
+
+    /**
+     * 出力方法（バッファの大きさ、書き出す時機、文ごとの評価結果を標準エラーに表示するか）
+     */
+    public static class Output {
+
+        /**
+         * 書き出す時機
+         */
+        public enum Flush {
+            /**
+             * 最上位の文ごと
+             */
+            STATEMENT,
+            /**
+             * バッファが一杯になるごと
+             */
+            BYTES,
+            /**
+             * 実行終了時のみ（それまでは全てメモリに保持）
+             */
+            END
+        }
+
+        /**
+         * 既定の出力方法（システムプロパティ zircon.output.buffer, flush, echo で指定）
+         */
+        public static final Output standard = new Output(Integer.getInteger("zircon.output.buffer", 8 * 1024),
+                Flush.valueOf(System.getProperty("zircon.output.flush", Flush.BYTES.name())),
+                !"false".equals(System.getProperty("zircon.output.echo")));
+
+        /**
+         * バッファのバイト数
+         */
+        final int size;
+
+        /**
+         * 書き出す時機
+         */
+        final Flush flush;
+
+        /**
+         * 文ごとの評価結果を標準エラーに表示するか
+         */
+        final boolean echo;
+
+        /**
+         * コンストラクタ
+         * @param size バッファのバイト数
+         * @param flush 書き出す時機
+         * @param echo 文ごとの評価結果を標準エラーに表示するか
+         */
+        public Output(int size, Flush flush, boolean echo) {
+            this.size = size;
+            this.flush = flush;
+            this.echo = echo;
+        }
+
+        /**
+         * @param out 出力先（閉じない）
+         * @param limit 最大バイト数
+         * @return 実行1回分の出力先
+         */
+        Sink open(OutputStream out, long limit) {
+            OutputStream buffer = flush == Flush.END ? new ByteArrayOutputStream(size) : new BufferedOutputStream(out, size);
+            try {
+                return new Sink(limit == Limits.NONE.output ? buffer : new LimitedOutputStream(buffer, limit), buffer, out, this);
+            } catch (UnsupportedEncodingException e) {
+                throw error(e);
+            }
+        }
+    }
+
+    /**
+     * 実行1回分の出力先（UTF-8、閉じると残りを書き出すが出力先自体は閉じない）
+     */
+    static class Sink extends PrintStream {
+
+        /**
+         * バッファ
+         */
+        final OutputStream buffer;
+
+        /**
+         * 出力先
+         */
+        final OutputStream target;
+
+        /**
+         * 出力方法
+         */
+        final Output output;
+
+        /**
+         * コンストラクタ
+         * @param out 書き込み先
+         * @param buffer バッファ
+         * @param target 出力先
+         * @param output 出力方法
+         * @throws UnsupportedEncodingException 文字コードが使用できない
+         */
+        Sink(OutputStream out, OutputStream buffer, OutputStream target, Output output) throws UnsupportedEncodingException {
+            super(out, false, utf8);
+            this.buffer = buffer;
+            this.target = target;
+            this.output = output;
+        }
+
+        /**
+         * 最上位の文の実行後
+         * @param sink 出力先(nullは既定の出力方法に従う)
+         * @param result 評価結果
+         */
+        static void statement(Sink sink, Object result) {
+            if (sink == null ? Output.standard.echo : sink.output.echo)
+                System.err.println("#> " + result);
+            if (sink != null && sink.output.flush == Output.Flush.STATEMENT)
+                sink.flush();
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.PrintStream#close() */
+        @Override
+        public void close() {
+            flush();
+            try {
+                if (buffer instanceof ByteArrayOutputStream)
+                    ((ByteArrayOutputStream) buffer).writeTo(target);
+                target.flush();
+            } catch (IOException e) {
+                setError();
+            }
+        }
+    }
+
+    /**
+     * 実行制限を超えた
+     */
+    @SuppressWarnings("serial")
+    public static class LimitExceededException extends RuntimeException {
+
+        /**
+         * 制限の種類（steps, millis, depth, output, interrupted）
+         */
+        public final String limit;
+
+        /**
+         * コンストラクタ
+         * @param limit 制限の種類
+         * @param value 制限値
+         */
+        LimitExceededException(String limit, long value) {
+            super("limit exceeded: " + limit + " " + value);
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * 実行1回分の制限状態
+     */
+    static final class Governor {
+
+        /**
+         * 最大評価ステップ数
+         */
+        final long maxSteps;
+
+        /**
+         * 関数呼び出しの最大の深さ
+         */
+        final int maxDepth;
+
+        /**
+         * 最大実行時間（ミリ秒）
+         */
+        final long millis;
+
+        /**
+         * 終了期限（System.nanoTime、制限なしは0）
+         */
+        final long deadline;
+
+        /**
+         * 評価ステップ数
+         */
+        long steps;
+
+        /**
+         * 関数呼び出しの深さ
+         */
+        int depth;
+
+        /**
+         * コンストラクタ
+         * @param limits 実行制限
+         */
+        Governor(Limits limits) {
+            this.maxSteps = limits.steps;
+            this.maxDepth = limits.depth;
+            this.millis = limits.millis;
+            this.deadline = limits.millis > 0 ? System.nanoTime() + limits.millis * 1_000_000 : 0;
+        }
+
+        /**
+         * 評価ごとの確認（時間と割り込みは1024ステップごとに確認）
+         */
+        void step() {
+            if (++steps > maxSteps)
+                throw new LimitExceededException("steps", maxSteps);
+            if ((steps & 1023) == 0)
+                check();
+        }
+
+        /**
+         * 実行時間と割り込みの確認
+         */
+        void check() {
+            if (deadline != 0 && System.nanoTime() - deadline > 0)
+                throw new LimitExceededException("millis", millis);
+            if (Thread.currentThread().isInterrupted())
+                throw new LimitExceededException("interrupted", steps);
+        }
+
+        /**
+         * 関数呼び出しの開始
+         */
+        void enter() {
+            if (++depth > maxDepth) {
+                depth--;
+                throw new LimitExceededException("depth", maxDepth);
+            }
+            check();
+        }
+
+        /**
+         * 関数呼び出しの終了
+         */
+        void exit() {
+            depth--;
+        }
+    }
+
+    /**
+     * 出力バイト数を制限する出力先
+     */
+    static class LimitedOutputStream extends FilterOutputStream {
+
+        /**
+         * 残りバイト数
+         */
+        long remain;
+
+        /**
+         * 最大バイト数
+         */
+        final long max;
+
+        /**
+         * コンストラクタ
+         * @param out 出力先
+         * @param max 最大バイト数
+         */
+        LimitedOutputStream(OutputStream out, long max) {
+            super(out);
+            this.remain = max;
+            this.max = max;
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.FilterOutputStream#write(int) */
+        @Override
+        public void write(int b) throws IOException {
+            consume(1);
+            out.write(b);
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.FilterOutputStream#write(byte[], int, int) */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            consume(len);
+            out.write(b, off, len);
+        }
+
+        /**
+         * @param length 出力するバイト数
+         */
+        void consume(int length) {
+            if ((remain -= length) < 0)
+                throw new LimitExceededException("output", max);
+        }
+    }
+
+    /**
+     * コンパイル済みプログラムのキャッシュ（ソースをキーとしたLRU）
+     */
+    public static class ProgramCache {
+
+        /**
+         * 最大件数
+         */
+        final int capacity;
+
+        /**
+         * キャッシュ対象とするソースの最大文字数
+         */
+        final int maxSourceLength;
+
+        /**
+         * 格納先（アクセス順）
+         */
+        final Map<String, Program> map;
+
+        /**
+         * ヒット数
+         */
+        final AtomicLong hits = new AtomicLong();
+
+        /**
+         * ミス数
+         */
+        final AtomicLong misses = new AtomicLong();
+
+        /**
+         * コンストラクタ
+         * @param capacity 最大件数（0以下はキャッシュしない）
+         * @param maxSourceLength キャッシュ対象とするソースの最大文字数
+         */
+        @SuppressWarnings("serial")
+        ProgramCache(int capacity, int maxSourceLength) {
+            this.capacity = capacity;
+            this.maxSourceLength = maxSourceLength;
+            this.map = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                    return size() > ProgramCache.this.capacity;
+                }
+            };
+        }
+
+        /**
+         * プログラムを取得（キャッシュにない場合はコンパイルして格納）
+         * @param source ソース
+         * @return プログラム
+         */
+        Program get(String source) {
+            if (capacity <= 0 || (source != null && source.length() > maxSourceLength)) {
+                misses.incrementAndGet();
+                return new Program(source);
+            }
+            Program program;
+            synchronized (map) {
+                program = map.get(source);
+            }
+            if (program != null) {
+                hits.incrementAndGet();
+                return program;
+            }
+            misses.incrementAndGet();
+            program = new Program(source); // 構文解析はロック外で行う
+            synchronized (map) {
+                Program old = map.putIfAbsent(source, program);
+                return old == null ? program : old;
+            }
+        }
+
+        /**
+         * @return ヒット数
+         */
+        public long hits() {
+            return hits.get();
+        }
+
+        /**
+         * @return ミス数
+         */
+        public long misses() {
+            return misses.get();
+        }
+
+        /**
+         * @return 格納件数
+         */
+        public int size() {
+            synchronized (map) {
+                return map.size();
+            }
+        }
+
+        /**
+         * 全件削除
+         */
+        public void clear() {
+            synchronized (map) {
+                map.clear();
+            }
+        }
+    }
+
+    /**
+     * @param setter
+     * @return
+     */
+    @SafeVarargs
+    public static Can can(Consumer<Can>... setter) {
+        return new Can(setter);
+    }
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(Zircon.class.getName());
+
+    /**
+     * 構文解析トレースの出力先（nullはトレースしない）
+     */
+    static volatile Tracer tracer = Boolean.getBoolean("zircon.trace")
+            ? Tracer.log(Logger.getLogger(Parser.class.getName()), Level.CONFIG) : null;
+
+    /**
+     * 構文解析トレースの出力先を設定
+     * @param tracer 出力先（nullはトレースしない）
+     */
+    public static void trace(Tracer tracer) {
+        Zircon.tracer = tracer;
+    }
+
+    /**
+     * 構文解析トレースの出力先
+     */
+    @FunctionalInterface
+    public interface Tracer {
+
+        /**
+         * トレース
+         * @param event 事象（構文規則名または解析済みの文を表す"parsed"）
+         * @param position ソース上の位置
+         * @param ast 解析した文の構文木（規則の開始時はnull）
+         */
+        void trace(String event, int position, Object ast);
+
+        /**
+         * ログに出力する出力先
+         * @param logger ロガー
+         * @param level ログレベル
+         * @return 出力先
+         */
+        static Tracer log(Logger logger, Level level) {
+            return (event, position, ast) -> logger.log(level, () -> event + " " + position + (ast == null ? "" : " " + ast));
+        }
+    }
+
+    /**
+     * 出力の文字コード名
+     */
+    static final String utf8 = "UTF-8";
+
+    /**
+     * 改行文字
+     */
+    static final String lineSeparator = System.lineSeparator();
+
+    /**
+     * 実行時エラー
+     * @param e 例外
+     * @return 実行時例外
+     */
+    static RuntimeException error(Exception e) {
+        return new RuntimeException(e);
+    }
+
+    /**
+     * 字句の種類
+     */
+    enum Kind {
+        /**
+         * 文字列
+         */
+        STRING,
+        /**
+         * 数値
+         */
+        NUMBER,
+        /**
+         * シンボル
+         */
+        SYMBOL,
+        /**
+         * 予約語
+         */
+        KEYWORD,
+        /**
+         * 記号・演算子
+         */
+        MARK,
+        /**
+         * 改行または';'
+         */
+        NEWLINE,
+        /**
+         * 終端
+         */
+        END
+    }
+
+    /**
+     * 字句
+     */
+    static final class Token {
+
+        /**
+         * 種類
+         */
+        final Kind kind;
+
+        /**
+         * 内容（文字列は引用符を除いた値、数値は'_'を除いた値）
+         */
+        final String text;
+
+        /**
+         * 開始位置
+         */
+        final int start;
+
+        /**
+         * コンストラクタ
+         * @param kind 種類
+         * @param text 内容
+         * @param start 開始位置
+         */
+        Token(Kind kind, String text, int start) {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+        }
+
+        /**
+         * @param kind 種類
+         * @param text 内容
+         * @return 種類と内容が一致するかどうか
+         */
+        boolean is(Kind kind, String text) {
+            return this.kind == kind && this.text.equals(text);
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString() */
+        @Override
+        public String toString() {
+            return kind + "[" + text + "]@" + start;
+        }
+    }
+
+    /**
+     * 字句解析器（要求されるごとに次の字句を一つ切り出す）
+     */
+    static class Lexer {
+
+        /**
+         * 空白
+         */
+        static final int[] spaces = { ' ', '\t' };
+
+        /**
+         * 改行
+         */
+        static final int[] newlines = { '\r', '\n' };
+
+        /**
+         * 記号('!', '$', '?'以外)
+         */
+        static final int[] marks = { '"', '#', '%', '&', '\'', '(', ')', '=', '-', '~', '^', '|', '\\', '`', '@', '{', '[', '+', '*', ':',
+                '}', ']', '<', ',', '>', '.', '/' };
+
+        /**
+         * 2文字の演算子
+         */
+        static final String[] pairs = { "<=", "<>", ">=" };
+
+        /**
+         * 予約語
+         */
+        static final Set<String> keywords = new HashSet<>(
+                Arrays.asList("if", "ef", "else", "return", "true", "false", "and", "or", "is", "in", "not", "exists", "empty"));
+
+        /**
+         * 文字種別（ASCIIのみ）
+         */
+        static final byte[] types = new byte[128];
+
+        /**
+         * 文字種別：空白
+         */
+        static final byte SPACE = 1;
+
+        /**
+         * 文字種別：改行（';'を含む）
+         */
+        static final byte NEWLINE = 2;
+
+        /**
+         * 文字種別：記号
+         */
+        static final byte MARK = 3;
+
+        /**
+         * 1文字の記号の文字列
+         */
+        static final String[] markTexts = new String[128];
+
+        static {
+            for (int c : spaces)
+                types[c] = SPACE;
+            for (int c : newlines)
+                types[c] = NEWLINE;
+            types[';'] = NEWLINE;
+            for (int c : marks) {
+                types[c] = MARK;
+                markTexts[c] = String.valueOf((char) c).intern();
+            }
+        }
+
+        /**
+         * @param c 文字
+         * @return 文字種別（0はシンボル構成文字）
+         */
+        static byte type(int c) {
+            return c < types.length ? types[c] : 0;
+        }
+
+        /**
+         * 読み込み元（文字列から作成した場合はnull）
+         */
+        final Reader reader;
+
+        /**
+         * 読み込み済みの文字（読み込み元がある場合は先読みした字句より前を捨てて再利用）
+         */
+        char[] buffer;
+
+        /**
+         * bufferの先頭の位置
+         */
+        int offset;
+
+        /**
+         * 読み込み済みの最終位置
+         */
+        int lastIndex;
+
+        /**
+         * 現在位置
+         */
+        int index;
+
+        /**
+         * 保持する最初の位置（先読みした字句の開始位置、エラー表示用）
+         */
+        int keep;
+
+        /**
+         * コンストラクタ
+         * @param source ソース
+         */
+        Lexer(String source) {
+            this.reader = null;
+            this.buffer = source == null ? new char[0] : source.toCharArray();
+            this.lastIndex = buffer.length;
+        }
+
+        /**
+         * コンストラクタ（必要になった分だけ読み込む）
+         * @param reader 読み込み元
+         * @param size バッファの初期サイズ
+         */
+        Lexer(Reader reader, int size) {
+            this.reader = reader;
+            this.buffer = new char[Math.max(size, 16)];
+        }
+
+        /**
+         * @param i 位置
+         * @return 位置に文字があるかどうか（必要なら読み込む）
+         */
+        boolean has(int i) {
+            return i < lastIndex || fill(i);
+        }
+
+        /**
+         * 位置の文字まで読み込む（半分以上が不要な文字なら捨て、そうでなければバッファを拡張）
+         * @param i 位置
+         * @return 位置に文字があるかどうか
+         */
+        boolean fill(int i) {
+            if (reader == null)
+                return false;
+            try {
+                while (i >= lastIndex) {
+                    if (lastIndex - offset == buffer.length) {
+                        int from = keep - offset;
+                        if (from >= buffer.length / 2) {
+                            System.arraycopy(buffer, from, buffer, 0, lastIndex - offset - from);
+                            offset += from;
+                        } else {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        }
+                    }
+                    int n = reader.read(buffer, lastIndex - offset, buffer.length - (lastIndex - offset));
+                    if (n < 0)
+                        return false;
+                    lastIndex += n;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @param i 位置（読み込み済みであること）
+         * @return 文字
+         */
+        char charAt(int i) {
+            return buffer[i - offset];
+        }
+
+        /**
+         * @param start 開始位置
+         * @param end 終了位置
+         * @return 部分文字列
+         */
+        String substring(int start, int end) {
+            return new String(buffer, start - offset, end - start);
+        }
+
+        /**
+         * @param text 文字列
+         * @param i 位置
+         * @return 位置から文字列が始まるかどうか
+         */
+        boolean startsWith(String text, int i) {
+            for (int j = 0; j < text.length(); j++)
+                if (!has(i + j) || charAt(i + j) != text.charAt(j))
+                    return false;
+            return true;
+        }
+
+        /**
+         * @return 次の字句（以降、これより前の文字は捨ててよい）
+         */
+        Token next() {
+            Token token = scan();
+            keep = token.start;
+            return token;
+        }
+
+        /**
+         * @return 次の字句
+         */
+        Token scan() {
+            while (has(index) && type(charAt(index)) == SPACE)
+                index++;
+            int start = index;
+            if (!has(index))
+                return new Token(Kind.END, "", start);
+            char c = charAt(index);
+            switch (type(c)) {
+            case NEWLINE:
+                while (has(index) && type(charAt(index)) >= SPACE && type(charAt(index)) <= NEWLINE)
+                    index++;
+                return new Token(Kind.NEWLINE, "\n", start);
+            case MARK:
+                if (c == '\'' || c == '"')
+                    return string(c);
+                for (String pair : pairs) {
+                    if (startsWith(pair, index)) {
+                        index += pair.length();
+                        return new Token(Kind.MARK, pair, start);
+                    }
+                }
+                index++;
+                return new Token(Kind.MARK, markTexts[c], start);
+            }
+            if (c >= '0' && c <= '9')
+                return number();
+            index++;
+            while (has(index) && type(charAt(index)) == 0)
+                index++;
+            String text = substring(start, index);
+            return new Token(keywords.contains(text) ? Kind.KEYWORD : Kind.SYMBOL, text, start);
+        }
+
+        /**
+         * @param quote 引用符
+         * @return "'" _ { ^"''"^ | "'" } _ "'" | '"' _ { ^'"'^ | '\"' } _ '"'
+         */
+        Token string(char quote) {
+            int start = index++;
+            if (quote == '\'') {
+                boolean escaped = false;
+                while (has(index)) {
+                    if (charAt(index++) == '\'') {
+                        if (!has(index) || charAt(index) != '\'') {
+                            String text = substring(start + 1, index - 1);
+                            return new Token(Kind.STRING, escaped ? text.replace("''", "'") : text, start);
+                        }
+                        escaped = true;
+                        index++;
+                    }
+                }
+                throw error("expected '", start);
+            }
+            int old = '\0';
+            while (has(index)) {
+                int now = charAt(index++);
+                if (now == '\\' && old == '\\') {
+                    old = '\0';
+                }
+                if (now == '"' && old != '\\') {
+                    return new Token(Kind.STRING, substring(start + 1, index - 1), start);
+                }
+                old = now;
+            }
+            throw error("expected \"", start);
+        }
+
+        /**
+         * @return digits _ { '_' | digits } _ [ '.' _ digits _ { '_' | digits } ]
+         */
+        Token number() {
+            int start = index;
+            boolean separated = skipDigits();
+            if (has(index + 1) && charAt(index) == '.' && isDigit(charAt(index + 1))) { // .で終わる場合はメソッド呼び出し
+                index++;
+                separated |= skipDigits();
+            }
+            String text = substring(start, index);
+            return new Token(Kind.NUMBER, separated ? text.replace("_", "") : text, start);
+        }
+
+        /**
+         * 数字と'_'をスキップ
+         * @return '_'を含んでいたかどうか
+         */
+        boolean skipDigits() {
+            boolean separated = false;
+            for (char c; has(index) && (isDigit(c = charAt(index)) || c == '_'); index++)
+                separated |= c == '_';
+            return separated;
+        }
+
+        /**
+         * @param c 文字
+         * @return 数字かどうか
+         */
+        static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        /**
+         * 文法エラー
+         * @param message エラー内容
+         * @param index 位置
+         * @return 文法エラー例外
+         */
+        RuntimeException error(String message, int index) {
+            index = Math.max(index, offset);
+            int end = index;
+            while (has(end) && type(charAt(end)) != NEWLINE)
+                end++;
+            return new RuntimeException(message + " (" + index + "文字目) " + substring(index, end));
+        }
+    }
+
+    /**
+     * 構文解析器（字句の種類で分岐する再帰下降構文解析）
+     */
+    static class Parser implements Iterable<Ast> {
+
+        /**
+         * 接頭辞
+         */
+        static final String[] prefixes = { "+", "-", "not", "exists", "empty" };
+
+        /**
+         * 演算子辞書(キー：演算子, 値:優先順位（正は左結合、負は右結合））
+         */
+        @SuppressWarnings("serial")
+        static final Map<String, Integer> operatorMap = new LinkedHashMap<String, Integer>() {
+            {
+                put(":", -1);
+                put("and", 2);
+                put("or", 2);
+                put("<=", 3);
+                put("<>", 3);
+                put("<", 3);
+                put("=", 3);
+                put(">=", 3);
+                put(">", 3);
+                put("is", 4);
+                put("in", 4);
+                put("&", 5);
+                put("+", 5);
+                put("-", 5);
+                put("*", 6);
+                put("/", 6);
+                put("%", 6);
+                put("\\", 6);
+                put("^", 7);
+            }
+        };
+
+        /**
+         * 演算子
+         */
+        static final String[] operators = operatorMap.keySet().toArray(new String[] {});
+
+        /**
+         * 字句解析器
+         */
+        final Lexer lexer;
+
+        /**
+         * 先読みした字句
+         */
+        Token token;
+
+        /**
+         * トレース出力先（nullはトレースしない）
+         */
+        final Tracer tracer = Zircon.tracer;
+
+        /* (non-Javadoc)
+         * @see java.lang.Iterable#iterator() */
+        @Override
+        public Iterator<Ast> iterator() {
+            return new Iterator<Ast>() {
+
+                /* (non-Javadoc)
+                 * @see java.util.Iterator#hasNext() */
+                @Override
+                public boolean hasNext() {
+                    skipNewlines();
+                    return token.kind != Kind.END;
+                }
+
+                /* (non-Javadoc)
+                 * @see java.util.Iterator#next() */
+                @Override
+                public Ast next() {
+                    return program();
+                }
+
+            };
+        }
+
+        /**
+         * コンストラクタ
+         * @param source ソース
+         */
+        Parser(String source) {
+            this.lexer = new Lexer(source);
+            this.token = lexer.next();
+        }
+
+        /**
+         * コンストラクタ（読み込みながら解析）
+         * @param reader 読み込み元
+         */
+        Parser(Reader reader) {
+            this.lexer = new Lexer(reader, 8 * 1024);
+            this.token = lexer.next();
+        }
+
+        /**
+         * 字句を一つ読み進める
+         * @return 読み進める前の字句
+         */
+        Token next() {
+            Token t = token;
+            token = lexer.next();
+            return t;
+        }
+
+        /**
+         * @param kind 種類
+         * @param text 内容
+         * @return 先読みした字句が一致するかどうか
+         */
+        boolean is(Kind kind, String text) {
+            return token.is(kind, text);
+        }
+
+        /**
+         * 一致すれば読み進める
+         * @param kind 種類
+         * @param text 内容
+         * @return 一致したかどうか
+         */
+        boolean accept(Kind kind, String text) {
+            if (!token.is(kind, text))
+                return false;
+            next();
+            return true;
+        }
+
+        /**
+         * 一致しなければ文法エラー
+         * @param kind 種類
+         * @param text 内容
+         * @param message エラー内容
+         */
+        void expect(Kind kind, String text, String message) {
+            if (!accept(kind, text))
+                throw error(message);
+        }
+
+        /**
+         * 改行をスキップ
+         * @return スキップしたかどうか
+         */
+        boolean skipNewlines() {
+            boolean skipped = false;
+            while (token.kind == Kind.NEWLINE) {
+                next();
+                skipped = true;
+            }
+            return skipped;
+        }
+
+        /**
+         * @return 先読みした字句が演算子かどうか
+         */
+        boolean isOperator() {
+            return (token.kind == Kind.MARK || token.kind == Kind.KEYWORD) && operatorMap.containsKey(token.text);
+        }
+
+        /**
+         * @return 先読みした字句が接頭辞かどうか
+         */
+        boolean isPrefix() {
+            switch (token.kind) {
+            case MARK:
+                return "+".equals(token.text) || "-".equals(token.text);
+            case KEYWORD:
+                return "not".equals(token.text) || "exists".equals(token.text) || "empty".equals(token.text);
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * @return 先読みした字句から式が始まるかどうか
+         */
+        boolean isExpression() {
+            switch (token.kind) {
+            case STRING:
+            case NUMBER:
+            case SYMBOL:
+                return true;
+            case KEYWORD:
+                return isPrefix() || "true".equals(token.text) || "false".equals(token.text);
+            case MARK:
+                return isPrefix() || "(".equals(token.text);
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * 構文規則の開始をトレース
+         * @param rule 構文規則名
+         */
+        void enter(String rule) {
+            if (tracer != null)
+                tracer.trace(rule, token.start, null);
+        }
+
+        /**
+         * @return statement ( newlines | ';' | END_OF_SOURCE )
+         */
+        Ast program() {
+            enter("program");
+            int start = token.start;
+            Ast r = statement();
+            if (token.kind != Kind.NEWLINE && token.kind != Kind.END) {
+                throw error("excepted newline");
+            }
+            skipNewlines();
+            if (tracer != null)
+                tracer.trace("parsed", start, r);
+            return r;
+        }
+
+        /**
+         * if : 'if' expression block { 'ef' expression block } [ 'else' block ] for: 'for' ( block | expression block | symbol 'in'
+         * expression block ) do : 'do' [ symbol ] { ',' symbol } [ ',' ] ( ':' expression | block )
+         * @return [ 'return' ] ( if | for | do | simple )
+         */
+        Ast statement() {
+            enter("statement");
+            boolean isReturn = accept(Kind.KEYWORD, "return");
+            Ast ast;
+            if (accept(Kind.KEYWORD, "if")) {
+                List<Ast> list = new ArrayList<>();
+                list.add(expression());
+                list.add(block());
+                while (accept(Kind.KEYWORD, "ef")) {
+                    list.add(expression());
+                    list.add(block());
+                }
+                if (accept(Kind.KEYWORD, "else")) {
+                    list.add(block());
+                }
+                ast = new ZrIf(list.toArray(new Ast[] {}));
+                /* } else if (eat("for").isPresent()) { } else if (eat("do").isPresent()) { */
+
+            } else {
+                ast = simple();
+            }
+            return isReturn ? new ZrReturn(ast) : ast;
+        }
+
+        /**
+         * @return expression [ tuple ]
+         */
+        Ast simple() {
+            enter("simple");
+            Ast e = expression();
+            return isExpression() ? new ZrPrimitive(e, tuple().children.toArray(new Ast[] {})) : e;
+        }
+
+        /**
+         * @return prefix { operator prefix }
+         */
+        Ast expression() {
+            enter("expression");
+            Ast right = prefix();
+            while (isOperator()) {
+                right = shift(right, next().text);
+            }
+            return right;
+        }
+
+        /**
+         * @return [ '+'|'-'|'not'|'exists'|'empty' ] primitive
+         */
+        Ast prefix() {
+            enter("prefix");
+            return isPrefix() ? ZrPrefix.of(next().text, primitive()) : primitive();
+        }
+
+        /**
+         * @param left 左辺
+         * @param operator 演算子
+         * @return 二項演算
+         */
+        Ast shift(Ast left, String operator) {
+            Ast right = prefix();
+            int value = operatorMap.get(operator);
+            while (isOperator()) {
+                int next = operatorMap.get(token.text);
+                if (value < 0 ? value > next : value >= next)
+                    break;
+                right = shift(right, next().text);
+            }
+            if (":".equals(operator) && !(left instanceof ZrSymbol))
+                throw error("expected symbol");
+            return ZrBinaryOperator.of(operator, left, right);
+        }
+
+        /**
+         * @return ( 'true' | 'false' | argument | string | number | symbol ) { postfix }
          */
         Ast primitive() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            Ast ast = eat("true", "false").<Ast> map(s -> "true".equals(s) ? ZrBoolean.TRUE : ZrBoolean.FALSE)
-                    .orElseGet(() -> test(this::string).orElseGet(() -> test(this::number).orElseGet(() -> test(this::symbol)
-                            .orElseGet(() -> test(this::argument).orElseThrow(() -> error("excepted primitive"))))));
-            for (;;) {
-                Optional<Ast> p = test(this::postfix);
-                if (p.isPresent())
-                    ast = new ZrPrimitive(ast, p.get());
-                else
+            enter("primitive");
+            Ast ast;
+            switch (token.kind) {
+            case STRING:
+                ast = string();
+                break;
+            case NUMBER:
+                ast = number();
+                break;
+            case SYMBOL:
+                ast = symbol();
+                break;
+            case KEYWORD:
+                if (accept(Kind.KEYWORD, "true")) {
+                    ast = ZrBoolean.TRUE;
+                    break;
+                }
+                if (accept(Kind.KEYWORD, "false")) {
+                    ast = ZrBoolean.FALSE;
+                    break;
+                }
+                throw error("excepted primitive");
+            default:
+                if (!is(Kind.MARK, "("))
+                    throw error("excepted primitive");
+                ast = argument();
+            }
+            while (is(Kind.MARK, ".") || is(Kind.MARK, "(")) {
+                Ast postfix = postfix();
+                ast = postfix.getClass() == Ast.class && postfix.children.size() > 1
+                        ? new ZrPrimitive(ast, postfix.children.toArray(new Ast[] {})) : new ZrPrimitive(ast, postfix);
+            }
+            return ast;
+        }
+
+        /**
+         * @return '.' symbol | argument（複数の引数は呼び出しの引数に展開）
+         */
+        Ast postfix() {
+            enter("postfix");
+            return accept(Kind.MARK, ".") ? symbol() : argument();
+        }
+
+        /**
+         * @return '(' ( { newlines } | expression { ( ',' | newlines ) expression } [ ',' ] ) ')'
+         */
+        Ast argument() {
+            enter("argument");
+            expect(Kind.MARK, "(", "expected (");
+            skipNewlines();
+            List<Ast> values = new ArrayList<>();
+            while (!is(Kind.MARK, ")")) {
+                values.add(expression());
+                if (!(accept(Kind.MARK, ",") | skipNewlines()))
+                    break;
+                skipNewlines();
+            }
+            expect(Kind.MARK, ")", "expected )");
+            return values.size() == 1 ? values.get(0) : new Ast(values);
+        }
+
+        /**
+         * @return expression { ',' expression }
+         */
+        Ast tuple() {
+            enter("tuple");
+            List<Ast> values = new ArrayList<>();
+            values.add(expression());
+            while (accept(Kind.MARK, ",")) {
+                skipNewlines();
+                values.add(expression());
+            }
+            return new Ast(values);
+        }
+
+        /**
+         * @return '{' ( { newlines } | statement { newlines statement } [ newlines ] ) '}'
+         */
+        Ast block() {
+            enter("block");
+            expect(Kind.MARK, "{", "expected {");
+            skipNewlines();
+            List<Ast> values = new ArrayList<>();
+            while (!is(Kind.MARK, "}")) {
+                values.add(statement());
+                if (!(accept(Kind.MARK, ",") | skipNewlines()))
+                    break;
+                skipNewlines();
+            }
+            expect(Kind.MARK, "}", "expected }");
+            return new Ast(values);
+        }
+
+        /**
+         * @return 文字列
+         */
+        Ast string() {
+            enter("string");
+            if (token.kind != Kind.STRING)
+                throw error("expected string");
+            return new ZrString(next().text);
+        }
+
+        /**
+         * @return 数値
+         */
+        Ast number() {
+            enter("number");
+            if (token.kind != Kind.NUMBER)
+                throw error("expected digit");
+            return new ZrNumber(next().text);
+        }
+
+        /**
+         * @return シンボル
+         */
+        Ast symbol() {
+            enter("symbol");
+            if (token.kind != Kind.SYMBOL)
+                throw error("expected symbol");
+            return new ZrSymbol(next().text);
+        }
+
+        /**
+         * 文法エラー
+         * @param message エラー内容
+         * @return 文法エラー例外
+         */
+        RuntimeException error(String message) {
+            return lexer.error(message, token.start);
+        }
+    }
+
+    /**
+     * 辞書インターフェース
+     */
+    public interface Dictionary extends Iterable<Map.Entry<String, Object>> {
+        /**
+         * キーに対応する値を取得
+         * @param key キー
+         * @return 値
+         */
+        Optional<Object> get(String key);
+
+        /**
+         * キーと値を格納
+         * @param key キー
+         * @param value 値
+         * @return 自分自身
+         */
+        Dictionary put(String key, Object value);
+
+        /**
+         * キーが存在するか
+         * @param key キー
+         * @return true:存在する, false:しない
+         */
+        boolean has(String key);
+
+        /**
+         * @return 文字列（キーの昇順、HashMapと添字の配列のように格納方法が異なるインタプリタとコンパイラでも同じ表示にする）
+         */
+        default String string() {
+            StringBuffer s = new StringBuffer("[").append(lineSeparator);
+            Map<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<String, Object> i : this) {
+                sorted.put(i.getKey(), i.getValue());
+            }
+            for (Map.Entry<String, Object> i : sorted.entrySet()) {
+                Object value = i.getValue();
+                s.append(i.getKey()).append('=').append(value == this ? "(self)" : value).append(lineSeparator);
+            }
+            return s.append(']').append(lineSeparator).toString();
+        }
+    }
+
+    /**
+     * 辞書実装
+     */
+    public static class Can implements Dictionary {
+
+        @SafeVarargs
+        Can(Consumer<Can>... setter) {
+            Arrays.stream(setter).forEach(i -> i.accept(this));
+        }
+
+        @Override
+        public String toString() {
+            return string();
+        }
+
+        /**
+         * 格納先
+         */
+        Map<String, Object> map = new HashMap<>();
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Dictionary#put(java.lang.String, java.lang.Object) */
+        @Override
+        public Dictionary put(String key, Object value) {
+            map.put(key, value);
+            return this;
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Dictionary#get(java.lang.String) */
+        @Override
+        public Optional<Object> get(String key) {
+            return Optional.ofNullable(map.get(key));
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Dictionary#has(java.lang.String) */
+        @Override
+        public boolean has(String key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return map.entrySet().iterator();
+        }
+    }
+
+    /**
+     * 階層構造の辞書
+     */
+    static class World extends Can {
+        /**
+         * 外側の辞書(null可)
+         */
+        final World outer;
+
+        /**
+         * 実行制限（外側の辞書と共有、外側がないか共有の環境の場合は新規に作成）
+         */
+        Governor governor;
+
+        /**
+         * コンストラクタ
+         * @param outer 外側の辞書(null可)
+         */
+        World(World outer) {
+            this.outer = outer;
+            this.governor = outer == null || outer instanceof Base ? new Governor(Limits.NONE) : outer.governor;
+        }
+
+        /**
+         * 自身にキーがない場合は順に外側を検索し、存在する値を更新、 存在しな場合は自身に格納（共有の環境にある場合も自身に格納）
+         * @see zircon.Zircon.Can#put(java.lang.String, java.lang.Object)
+         */
+        @Override
+        public Can put(String key, Object value) {
+            World owner = this;
+            for (World i = this; i != null; i = i.outer) {
+                if (i.has(key)) {
+                    owner = i instanceof Base ? this : i;
                     break;
+                }
             }
-            return ast;
+            owner.set(key, value);
+            return this;
+        }
+
+        /**
+         * 自身にキーがない場合は順に外側を検索
+         * @see zircon.Zircon.Can#get(java.lang.String)
+         */
+        @Override
+        public Optional<Object> get(String key) {
+            return Optional.ofNullable(lookup(key));
+        }
+
+        /**
+         * 自身にキーがない場合は順に外側を検索
+         * @param key キー
+         * @return 値（見つからない場合はnull）
+         */
+        Object lookup(String key) {
+            for (World i = this; i != null; i = i.outer) {
+                Object value = i.local(key);
+                if (value != null)
+                    return value;
+            }
+            return null;
+        }
+
+        /**
+         * @param key キー
+         * @return 自身に格納された値（外側は検索しない）
+         */
+        Object local(String key) {
+            return map.get(key);
+        }
+
+        /**
+         * 自身に格納（外側は検索しない）
+         * @param key キー
+         * @param value 値
+         */
+        void set(String key, Object value) {
+            map.put(key, value);
+        }
+    }
+
+    /**
+     * 全ての実行で共有する変更不可の環境（実行ごとの環境の外側に置く）
+     */
+    static final class Base extends World {
+
+        /**
+         * コンストラクタ
+         * @param natives ホスト関数
+         */
+        Base(Map<String, ZrNative> natives) {
+            super(null);
+            governor = null; // 評価しないため実行制限は持たない（実行ごとの環境で作成）
+            map = Collections.unmodifiableMap(new HashMap<>(natives));
+        }
+
+        /**
+         * 環境変数（初回参照時に作成）
+         */
+        static final class Env {
+            static final Can env = new Can(m -> m.map = Collections.unmodifiableMap(new HashMap<>(System.getenv())));
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.World#local(java.lang.String) */
+        @Override
+        Object local(String key) {
+            return "env".equals(key) ? Env.env : super.local(key);
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Can#has(java.lang.String) */
+        @Override
+        public boolean has(String key) {
+            return "env".equals(key) || super.has(key);
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.World#set(java.lang.String, java.lang.Object) */
+        @Override
+        void set(String key, Object value) {
+            throw new UnsupportedOperationException("read only: " + key);
+        }
+    }
+
+    /**
+     * 変数をコンパイル時に割り当てた添字で配列に格納する辞書（コンパイル実行用）
+     * 割り当てのないキーは通常の辞書と同様に格納する
+     */
+    static class Frame extends World {
+
+        /**
+         * 変数名と添字の対応（プログラムごとに共有）
+         */
+        final Map<String, Integer> slots;
+
+        /**
+         * 変数の値（nullは未定義）
+         */
+        final Object[] values;
+
+        /**
+         * コンストラクタ
+         * @param outer 外側の辞書(null可)
+         * @param slots 変数名と添字の対応
+         */
+        Frame(World outer, Map<String, Integer> slots) {
+            super(outer);
+            this.slots = slots;
+            this.values = new Object[slots.size()];
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.World#local(java.lang.String) */
+        @Override
+        Object local(String key) {
+            Integer slot = slots.get(key);
+            return slot == null ? super.local(key) : values[slot];
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.World#set(java.lang.String, java.lang.Object) */
+        @Override
+        void set(String key, Object value) {
+            Integer slot = slots.get(key);
+            if (slot == null)
+                super.set(key, value);
+            else
+                values[slot] = value;
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Can#has(java.lang.String) */
+        @Override
+        public boolean has(String key) {
+            Integer slot = slots.get(key);
+            return slot == null ? super.has(key) : values[slot] != null;
+        }
+
+        /* (non-Javadoc)
+         * @see zircon.Zircon.Can#iterator() */
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            Map<String, Object> all = new HashMap<>(map);
+            slots.forEach((key, slot) -> {
+                if (values[slot] != null)
+                    all.put(key, values[slot]);
+            });
+            return all.entrySet().iterator();
+        }
+    }
+
+    /**
+     * 構文木
+     */
+    static class Ast {
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString() */
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + Objects.toString(children);
+        }
+
+        /**
+         * 子リスト
+         */
+        List<Ast> children;
+
+        /**
+         * コンストラクタ
+         * @param children 子リスト
+         */
+        Ast(Ast... children) {
+            this.children = Arrays.asList(children);
+        }
+
+        /**
+         * コンストラクタ
+         * @param children 子リスト
+         */
+        Ast(List<Ast> children) {
+            this.children = children;
+        }
+
+        /**
+         * 評価（実行制限を確認してから{@link #eval(World)}を呼ぶ）
+         * @param world 環境
+         * @return 評価結果
+         */
+        final Object calc(World world) {
+            world.governor.step();
+            return eval(world);
+        }
+
+        /**
+         * 評価本体
+         * @param world 環境
+         * @return 評価結果
+         */
+        Object eval(World world) {
+            return children.stream().map(i -> i.calc(world)).toArray();
+        }
+    }
+
+    /**
+     * 値を一つ持つ抽象構文木
+     * @param <T> 値の型
+     */
+    static class One<T> extends Ast {
+        @Override
+        Object eval(World world) {
+            return value;
+        }
+
+        /**
+         * @return 文字列
+         */
+        @Override
+        public String toString() {
+            return value == null ? null : getClass().getSimpleName() + '[' + value + ']';
+        }
+
+        /**
+         * 値
+         */
+        T value;
+
+        /**
+         * コンストラクタ
+         * @param value 値
+         */
+        One(T value) {
+            super(Collections.<Ast> emptyList());
+            this.value = value;
+        }
+    }
+
+    /**
+     * if
+     */
+    static class ZrIf extends Ast {
+        @Override
+        Object eval(World world) {
+            Iterator<Ast> i = children.iterator();
+            while (i.hasNext()) {
+                Ast condition = i.next();
+                if (!i.hasNext()) // else
+                    return condition.calc(world);
+                Ast action = i.next();
+                if (truth(condition.calc(world)))
+                    return action.calc(world);
+            }
+            return null;
+        }
+
+        /**
+         * 条件判定
+         * @param condition 条件の評価結果
+         * @return 真偽
+         */
+        static boolean truth(Object condition) {
+            return (boolean) condition;
+        }
+
+        ZrIf(Ast... condition_actions_else) {
+            super(condition_actions_else);
+        }
+    }
+
+    /**
+     * return
+     */
+    static class ZrReturn extends Ast {
+        @Override
+        Object eval(World world) {
+            return children.get(0).calc(world);
+        }
+
+        ZrReturn(Ast expression) {
+            super(expression);
+        }
+    }
+
+    /**
+     * 接頭辞（構文解析時に接頭辞ごとのクラスを生成する）
+     */
+    static abstract class ZrPrefix extends Ast {
+
+        /**
+         * 値
+         */
+        final Ast value;
+
+        /**
+         * @param prefix 接頭辞
+         * @param value 値
+         * @return 接頭辞ごとの構文木（'+'は値そのもの）
+         */
+        static Ast of(String prefix, Ast value) {
+            switch (prefix) {
+            case "+":
+                return value;
+            case "-":
+                return new ZrNegate(value);
+            case "not":
+                return new ZrNot(value);
+            case "exists":
+                return new ZrExists(value);
+            case "empty":
+                return new ZrEmpty(value);
+            }
+            throw new RuntimeException("Unsupported prefix : " + prefix);
+        }
+
+        ZrPrefix(Ast value) {
+            super(value);
+            this.value = value;
+        }
+    }
+
+    /**
+     * 符号反転
+     */
+    static class ZrNegate extends ZrPrefix {
+
+        @Override
+        Object eval(World world) {
+            return operate(value.calc(world));
+        }
+
+        static Object operate(Object v) {
+            return Arithmetic.negate(v);
+        }
+
+        ZrNegate(Ast value) {
+            super(value);
+        }
+    }
+
+    /**
+     * 否定
+     */
+    static class ZrNot extends ZrPrefix {
+
+        @Override
+        Object eval(World world) {
+            return operate(value.calc(world));
+        }
+
+        static Object operate(Object v) {
+            return !(boolean) v;
+        }
+
+        ZrNot(Ast value) {
+            super(value);
+        }
+    }
+
+    /**
+     * 値があるかどうか
+     */
+    static class ZrExists extends ZrPrefix {
+
+        @Override
+        Object eval(World world) {
+            return operate(value.calc(world));
+        }
+
+        static Object operate(Object v) {
+            return v != null;
+        }
+
+        ZrExists(Ast value) {
+            super(value);
+        }
+    }
+
+    /**
+     * 値がないかどうか
+     */
+    static class ZrEmpty extends ZrPrefix {
+
+        @Override
+        Object eval(World world) {
+            return operate(value.calc(world));
+        }
+
+        static Object operate(Object v) {
+            return v == null;
+        }
+
+        ZrEmpty(Ast value) {
+            super(value);
         }
+    }
+
+    /**
+     * 数値演算（longに収まる整数はLong、それ以外はBigDecimalで表し、桁あふれ時はBigDecimalに昇格する）
+     */
+    static final class Arithmetic {
 
         /**
-         * @return '.' symbol | argument
+         * 割り切れない除算の精度（既定は有効桁34桁、偶数丸め）
          */
-        Ast postfix() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            return eat(".").map(x -> symbol()).orElseGet(() -> argument());
-        }
+        static final MathContext context = new MathContext(
+                Integer.getInteger("zircon.math.precision", MathContext.DECIMAL128.getPrecision()), RoundingMode.HALF_EVEN);
 
         /**
-         * @return '(' ( { newlines } | expression { ( ',' | newlines ) expression } [ ',' ] ) ')'
+         * キャッシュする最小値
          */
-        Ast argument() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            eat("(").orElseThrow(() -> error("expected ("));
-            Ast ast = test(this::expression).map(e -> {
-                List<Ast> values = new ArrayList<>();
-                values.add(e);
-                while (eat(",").isPresent()) {
-                    skip(spaces, newlines);
-                    values.add(expression());
-                }
-                return values.size() == 1 ? e : new Ast(values);
-            }).orElseGet(() -> {
-                skip(spaces, newlines);
-                return new Ast();
-            });
-            eat(")").orElseThrow(() -> error("expected )"));
-            return ast;
-        }
+        static final int cacheLow = -128;
 
         /**
-         * @return expression { ',' expression }
+         * キャッシュした値（ループカウンタ等の小さい整数は生成しない）
          */
-        Ast tuple() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            List<Ast> values = new ArrayList<>();
-            values.add(expression());
-            while (eat(",").isPresent()) {
-                skip();
-                values.add(expression());
+        static final Long[] cache = new Long[1024 - cacheLow + 1];
+
+        static {
+            for (int i = 0; i < cache.length; i++) {
+                cache[i] = Long.valueOf(i + cacheLow);
             }
-            return new Ast(values);
         }
 
         /**
-         * @return '{' ( { newlines } | statement { newlines statement } [ newlines ] ) '}'
+         * @param value 値
+         * @return Long
          */
-        Ast block() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            eat("{").orElseThrow(() -> error("expected {"));
-            Ast ast = test(this::statement).map(e -> {
-                List<Ast> values = new ArrayList<>();
-                values.add(e);
-                while (eat(",").isPresent()) {
-                    skip(spaces, newlines);
-                    values.add(statement());
-                }
-                return new Ast(values);
-            }).orElseGet(() -> {
-                skip(spaces, newlines);
-                return new Ast();
-            });
-            eat("}").orElseThrow(() -> error("expected }"));
-            return ast;
+        static Long box(long value) {
+            return value >= cacheLow && value < cacheLow + cache.length ? cache[(int) value - cacheLow] : Long.valueOf(value);
         }
 
         /**
-         * @return "'" _ { ^"''"^ | "'" } _ "'" | '"' _ { ^'"'^ | '\"' } _ '"'
+         * @param text 数値文字列
+         * @return 数値（小数点がなくlongに収まる場合はLong）
          */
-        Ast string() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            skip();
-            int start = index;
-            switch (peek()) {
-            case '\'':
-                index++;
-                while (index < lastIndex) {
-                    if (source.charAt(index++) == '\'') {
-                        if (peek() != '\'') {
-                            return new ZrString(source.substring(start + 1, index - 1).replace("''", "'"));
-                        }
-                        index++;
-                    }
-                }
-                throw error("expected '");
-            case '"':
-                index++;
-                int old = '\0';
-                while (index < lastIndex) {
-                    int now = source.charAt(index++);
-                    if (now == '\\' && old == '\\') {
-                        old = '\0';
-                    }
-                    if (now == '"' && old != '\\') {
-                        return new ZrString(source.substring(start + 1, index - 1));
-                    }
-                    old = now;
-                }
-                throw error("expected \"");
-            }
-            throw error("expected string");
+        static Number parse(String text) {
+            if (text.indexOf('.') < 0 && text.length() <= 18)
+                return box(Long.parseLong(text));
+            BigDecimal value = new BigDecimal(text);
+            return text.indexOf('.') < 0 && value.unscaledValue().bitLength() < 64 ? box(value.longValue()) : value;
         }
 
         /**
-         * @return digits _ { '_' | digits } _ [ '.' _ digits _ { '_' | digits } ]
+         * @param value 値
+         * @return BigDecimal（数値以外はClassCastException）
          */
-        Ast number() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            final int[] separators = { '_' };
-            skip();
-            if (peek(digits) == '\0')
-                throw error("expected digit");
-            int start = index;
-            skip(separators, digits);
-            if (skip('.') == 1) {
-                if (skip(separators, digits) <= 0) { // .で終わる場合はメソッド呼び出し
-                    index--;
-                }
+        static BigDecimal decimal(Object value) {
+            if (value instanceof Long)
+                return BigDecimal.valueOf((Long) value);
+            if (value instanceof Number && !(value instanceof BigDecimal))
+                return new BigDecimal(value.toString());
+            return (BigDecimal) value;
+        }
+
+        static Object add(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long a = (Long) left, b = (Long) right, c = a + b;
+                if (((a ^ c) & (b ^ c)) >= 0)
+                    return box(c);
+            }
+            return decimal(left).add(decimal(right));
+        }
+
+        static Object subtract(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long a = (Long) left, b = (Long) right, c = a - b;
+                if (((a ^ b) & (a ^ c)) >= 0)
+                    return box(c);
+            }
+            return decimal(left).subtract(decimal(right));
+        }
+
+        static Object multiply(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long a = (Long) left, b = (Long) right, c = a * b;
+                if (((Math.abs(a) | Math.abs(b)) >>> 31 == 0 || b == 0 || c / b == a) && !(a == Long.MIN_VALUE && b == -1))
+                    return box(c);
             }
-            return new ZrNumber(source.substring(start, index));
+            return decimal(left).multiply(decimal(right));
         }
 
         /**
-         * @return ^digits|marks|spaces|newlines|';'^ _ { ^marks|spaces|newlines|';'^ }
+         * 除算（割り切れる場合は正確な値、割り切れない場合は{@link #context}の精度で丸める）
          */
-        Ast symbol() {
-            Logger.getLogger(getClass().getName()).config("" + index);
-            skip();
-            if (peek(digits) != '\0' || peek(marks) != '\0' || peek(spaces) != '\0' || peek(newlines) != '\0' || peek(';') != '\0') {
-                throw error("expected symbol");
+        static Object divide(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long a = (Long) left, b = (Long) right;
+                if (b != 0 && a % b == 0 && !(a == Long.MIN_VALUE && b == -1))
+                    return box(a / b);
             }
-            int start = index;
-            index++;
-            while (index < lastIndex && peek(marks) == '\0' && peek(spaces) == '\0' && peek(newlines) == '\0' && peek(';') == '\0') {
-                index++;
+            BigDecimal a = decimal(left), b = decimal(right);
+            try {
+                return a.divide(b); // 割り切れる場合は桁数によらず正確な値
+            } catch (ArithmeticException e) {
+                return a.divide(b, context);
+            }
+        }
+
+        static Object remainder(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long && (Long) right != 0)
+                return box((Long) left % (Long) right);
+            return decimal(left).remainder(decimal(right));
+        }
+
+        static Object quotient(Object left, Object right) {
+            if (left instanceof Long && right instanceof Long) {
+                long a = (Long) left, b = (Long) right;
+                if (b != 0 && !(a == Long.MIN_VALUE && b == -1))
+                    return box(a / b);
             }
-            return new ZrSymbol(source.substring(start, index));
+            return decimal(left).divideToIntegralValue(decimal(right));
         }
 
         /**
-         * 文法エラー
-         * @param message エラー内容
-         * @return 文法エラー例外
+         * べき乗（指数は整数部のみ使用、負の指数は{@link #context}の精度で丸める）
          */
-        RuntimeException error(String message) {
-            int end = Arrays.stream(newlines).map(i -> source.indexOf(i, index)).filter(i -> i >= 0).min().orElse(lastIndex);
-            return new RuntimeException(message + " (" + index + "文字目) " + source.substring(index, end));
+        static Object power(Object left, Object right) {
+            int n = right instanceof Long ? Math.toIntExact((Long) right) : decimal(right).intValue();
+            if (n < 0)
+                return decimal(left).pow(n, context);
+            if (left instanceof Long) {
+                long base = (Long) left, r = 1;
+                for (int i = n;; i >>= 1) {
+                    if ((i & 1) != 0) {
+                        Object m = multiply(box(r), box(base));
+                        if (!(m instanceof Long))
+                            break;
+                        r = (Long) m;
+                    }
+                    if (i <= 1)
+                        return box(r);
+                    Object m = multiply(box(base), box(base));
+                    if (!(m instanceof Long))
+                        break;
+                    base = (Long) m;
+                }
+            }
+            return decimal(left).pow(n);
+        }
+
+        static Object negate(Object value) {
+            if (value instanceof Long && (Long) value != Long.MIN_VALUE)
+                return box(-(Long) value);
+            return decimal(value).negate();
+        }
+
+        /**
+         * 大小比較（精度は無視する）
+         */
+        static int compare(Number left, Number right) {
+            if (left instanceof Long && right instanceof Long)
+                return Long.compare((Long) left, (Long) right);
+            return decimal(left).compareTo(decimal(right));
         }
     }
 
     /**
-     * 辞書インターフェース
+     * 論理値
      */
-    public interface Dictionary extends Iterable<Map.Entry<String, Object>> {
+    static class ZrBoolean extends One<Boolean> {
+
+        ZrBoolean(String value) {
+            super("true".equalsIgnoreCase(value));
+        }
+
+        static final ZrBoolean TRUE = new ZrBoolean("true");
+        static final ZrBoolean FALSE = new ZrBoolean("false");
+    }
+
+    /**
+     * 数値
+     */
+    static class ZrNumber extends One<Number> {
+
+        ZrNumber(String value) {
+            super(Arithmetic.parse(value));
+        }
+    }
+
+    /**
+     * 文字列
+     */
+    static class ZrString extends One<String> {
+
         /**
-         * キーに対応する値を取得
-         * @param key キー
-         * @return 値
+         * @param value
          */
-        Optional<Object> get(String key);
+        ZrString(String value) {
+            super(value);
+        }
+    }
+
+    /**
+     * 二項演算（構文解析時に演算子ごとのクラスを生成する）
+     */
+    static abstract class ZrBinaryOperator extends Ast {
 
         /**
-         * キーと値を格納
-         * @param key キー
-         * @param value 値
-         * @return 自分自身
+         * 左辺
          */
-        Dictionary put(String key, Object value);
+        final Ast left;
 
         /**
-         * キーが存在するか
-         * @param key キー
-         * @return true:存在する, false:しない
+         * 右辺
          */
-        boolean has(String key);
+        final Ast right;
 
         /**
-         * @return 文字列
+         * @param operator 演算子
+         * @param left 左辺
+         * @param right 右辺
+         * @return 演算子ごとの構文木
          */
-        default String string() {
-            StringBuffer s = new StringBuffer("[").append(lineSeparator);
-            for (Map.Entry<String, Object> i : this) {
-                Object value = i.getValue();
-                s.append(i.getKey()).append('=').append(value == this ? "(self)" : value).append(lineSeparator);
+        static Ast of(String operator, Ast left, Ast right) {
+            switch (operator) {
+            case ":":
+                return new ZrAssign((ZrSymbol) left, right);
+            case "and":
+                return new ZrAnd(left, right);
+            case "or":
+                return new ZrOr(left, right);
+            case "<=":
+                return new ZrLessEqual(left, right);
+            case "<>":
+                return new ZrNotEqual(left, right);
+            case "<":
+                return new ZrLess(left, right);
+            case "=":
+                return new ZrEqual(left, right);
+            case ">=":
+                return new ZrGreaterEqual(left, right);
+            case ">":
+                return new ZrGreater(left, right);
+            case "is":
+                return new ZrIs(left, right);
+            case "in":
+                return new ZrIn(left, right);
+            case "&":
+                return new ZrConcat(left, right);
+            case "+":
+                return new ZrAdd(left, right);
+            case "-":
+                return new ZrSubtract(left, right);
+            case "*":
+                return new ZrMultiply(left, right);
+            case "/":
+                return new ZrDivide(left, right);
+            case "%":
+                return new ZrRemainder(left, right);
+            case "\\":
+                return new ZrQuotient(left, right);
+            case "^":
+                return new ZrPower(left, right);
             }
-            return s.append(']').append(lineSeparator).toString();
+            throw new RuntimeException("Unsupported operator : " + operator);
+        }
+
+        /**
+         * 等しいかどうか（数値は精度を無視して比較）
+         * @param left 左辺の値
+         * @param right 右辺の値
+         * @return 比較結果
+         */
+        static boolean equal(Object left, Object right) {
+            if (left instanceof Number && right instanceof Number)
+                return Arithmetic.compare((Number) left, (Number) right) == 0;
+            return Objects.equals(left, right);
+        }
+
+        /**
+         * 大小比較
+         * @param left 左辺の値
+         * @param right 右辺の値
+         * @return 比較結果（負:左辺が小さい, 0:等しい, 正:左辺が大きい）
+         */
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        static int compare(Object left, Object right) {
+            if (left instanceof Number && right instanceof Number)
+                return Arithmetic.compare((Number) left, (Number) right);
+            if (left == null || right == null || left.getClass() != right.getClass() || !(left instanceof Comparable))
+                throw new RuntimeException("Incomparable : " + left + ", " + right);
+            return ((Comparable) left).compareTo(right);
+        }
+
+        ZrBinaryOperator(Ast left, Ast right) {
+            super(left, right);
+            this.left = left;
+            this.right = right;
         }
     }
 
     /**
-     * 辞書実装
+     * 代入（右結合、評価結果は代入した値）
      */
-    public static class Can implements Dictionary {
+    static class ZrAssign extends ZrBinaryOperator {
 
-        @SafeVarargs
-        Can(Consumer<Can>... setter) {
-            Arrays.stream(setter).forEach(i -> i.accept(this));
+        /**
+         * 変数名
+         */
+        final String name;
+
+        @Override
+        Object eval(World world) {
+            return assign(world, name, right.calc(world));
+        }
+
+        static Object assign(World world, String name, Object value) {
+            world.put(name, value);
+            return value;
+        }
+
+        ZrAssign(ZrSymbol left, Ast right) {
+            super(left, right);
+            this.name = left.value;
+        }
+    }
+
+    /**
+     * 論理積（左辺が偽の場合は右辺を評価しない）
+     */
+    static class ZrAnd extends ZrBinaryOperator {
+
+        @Override
+        Object eval(World world) {
+            return ZrIf.truth(left.calc(world)) && ZrIf.truth(right.calc(world));
+        }
+
+        ZrAnd(Ast left, Ast right) {
+            super(left, right);
         }
+    }
+
+    /**
+     * 論理和（左辺が真の場合は右辺を評価しない）
+     */
+    static class ZrOr extends ZrBinaryOperator {
 
         @Override
-        public String toString() {
-            return string();
+        Object eval(World world) {
+            return ZrIf.truth(left.calc(world)) || ZrIf.truth(right.calc(world));
         }
 
-        /**
-         * 格納先
-         */
-        Map<String, Object> map = new HashMap<>();
+        ZrOr(Ast left, Ast right) {
+            super(left, right);
+        }
+    }
+
+    /**
+     * 以下
+     */
+    static class ZrLessEqual extends ZrBinaryOperator {
 
-        /* (non-Javadoc)
-         * @see zircon.Zircon.Dictionary#put(java.lang.String, java.lang.Object) */
         @Override
-        public Dictionary put(String key, Object value) {
-            map.put(key, value);
-            return this;
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return compare(left, right) <= 0;
+        }
+
+        ZrLessEqual(Ast left, Ast right) {
+            super(left, right);
+        }
+    }
+
+    /**
+     * 等しくない
+     */
+    static class ZrNotEqual extends ZrBinaryOperator {
+
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return !equal(left, right);
+        }
+
+        ZrNotEqual(Ast left, Ast right) {
+            super(left, right);
+        }
+    }
+
+    /**
+     * 未満
+     */
+    static class ZrLess extends ZrBinaryOperator {
+
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return compare(left, right) < 0;
+        }
+
+        ZrLess(Ast left, Ast right) {
+            super(left, right);
+        }
+    }
+
+    /**
+     * 等しい
+     */
+    static class ZrEqual extends ZrBinaryOperator {
+
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return equal(left, right);
         }
 
-        /* (non-Javadoc)
-         * @see zircon.Zircon.Dictionary#get(java.lang.String) */
+        ZrEqual(Ast left, Ast right) {
+            super(left, right);
+        }
+    }
+
+    /**
+     * 以上
+     */
+    static class ZrGreaterEqual extends ZrBinaryOperator {
+
         @Override
-        public Optional<Object> get(String key) {
-            return Optional.ofNullable(map.get(key));
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        /* (non-Javadoc)
-         * @see zircon.Zircon.Dictionary#has(java.lang.String) */
-        @Override
-        public boolean has(String key) {
-            return map.containsKey(key);
+        static Object operate(Object left, Object right) {
+            return compare(left, right) >= 0;
         }
 
-        @Override
-        public Iterator<Entry<String, Object>> iterator() {
-            return map.entrySet().iterator();
+        ZrGreaterEqual(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 階層構造の辞書
+     * 超過
      */
-    static class World extends Can {
-        /**
-         * 外側の辞書
-         */
-        Optional<World> outer;
+    static class ZrGreater extends ZrBinaryOperator {
 
-        /**
-         * コンストラクタ
-         * @param outer 外側の辞書(null可)
-         */
-        World(World outer) {
-            this.outer = Optional.ofNullable(outer);
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        /**
-         * 自身にキーがない場合は順に外側を検索し、存在する値を更新、 存在しな場合は自身に格納
-         * @see zircon.Zircon.Can#put(java.lang.String, java.lang.Object)
-         */
-        @Override
-        public Can put(String key, Object value) {
-            if (super.has(key)) {
-                super.put(key, value);
-            } else if (outer.isPresent() && outer.get().has(key)) {
-                outer.get().put(key, value);
-            } else {
-                super.put(key, value);
-            }
-            return this;
+        static Object operate(Object left, Object right) {
+            return compare(left, right) > 0;
         }
 
-        /**
-         * 自身にキーがない場合は順に外側を検索
-         * @see zircon.Zircon.Can#get(java.lang.String)
-         */
-        @Override
-        public Optional<Object> get(String key) {
-            return Optional.ofNullable((super.get(key).orElseGet(() -> outer.map(o -> o.get(key)))));
+        ZrGreater(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 構文木
+     * 同一（同じオブジェクトかどうか）
      */
-    static class Ast {
-        /* (non-Javadoc)
-         * @see java.lang.Object#toString() */
+    static class ZrIs extends ZrBinaryOperator {
+
         @Override
-        public String toString() {
-            return getClass().getSimpleName() + Objects.toString(children);
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        /**
-         * 子リスト
-         */
-        List<Ast> children;
+        static Object operate(Object left, Object right) {
+            return left == right;
+        }
 
-        /**
-         * コンストラクタ
-         * @param children 子リスト
-         */
-        Ast(Ast... children) {
-            this.children = Arrays.asList(children);
-            String s = toString();
-            if (s != null)
-                Logger.getLogger(getClass().getName()).config(s);
+        ZrIs(Ast left, Ast right) {
+            super(left, right);
         }
+    }
 
-        /**
-         * コンストラクタ
-         * @param children 子リスト
-         */
-        Ast(List<Ast> children) {
-            this.children = children;
-            String s = toString();
-            if (s != null) {
-                Logger.getLogger(getClass().getName()).config(s);
+    /**
+     * 包含（辞書はキー、文字列は部分文字列、配列は要素を含むかどうか）
+     */
+    static class ZrIn extends ZrBinaryOperator {
+
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            if (right instanceof Dictionary)
+                return ((Dictionary) right).has(String.valueOf(left));
+            if (right instanceof String)
+                return ((String) right).contains(String.valueOf(left));
+            if (right instanceof Object[]) {
+                for (Object i : (Object[]) right)
+                    if (equal(left, i))
+                        return true;
             }
+            return false;
         }
 
-        /**
-         * 評価
-         * @param world 環境
-         * @return 評価結果
-         */
-        Object calc(World world) {
-            return children.stream().map(i -> i.calc(world)).toArray();
+        ZrIn(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 値を一つ持つ抽象構文木
-     * @param <T> 値の型
+     * 文字列連結（nullは空文字列とする）
      */
-    static class One<T> extends Ast {
-        @Override
-        Object calc(World world) {
-            return value;
-        }
+    static class ZrConcat extends ZrBinaryOperator {
 
-        /**
-         * @return 文字列
-         */
         @Override
-        public String toString() {
-            return value == null ? null : getClass().getSimpleName() + '[' + value + ']';
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        /**
-         * 値
-         */
-        T value;
+        static Object operate(Object left, Object right) {
+            return Objects.toString(left, "") + Objects.toString(right, "");
+        }
 
-        /**
-         * コンストラクタ
-         * @param value 値
-         */
-        One(T value) {
-            super(Arrays.asList());
-            this.value = value;
-            String s = toString();
-            if (s != null) {
-                Logger.getLogger(getClass().getName()).config(s);
-            }
+        ZrConcat(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * if
+     * 加算
      */
-    static class ZrIf extends Ast {
+    static class ZrAdd extends ZrBinaryOperator {
+
         @Override
-        Object calc(World world) {
-            Iterator<Ast> i = children.iterator();
-            Object c = null;
-            for (;;) {
-                c = i.next().calc(world);
-                if (!i.hasNext())
-                    break;
-                if ((boolean) c)
-                    c = i.next().calc(world);
-            }
-            return c;
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        ZrIf(Ast... condition_actions_else) {
-            super(condition_actions_else);
+        static Object operate(Object left, Object right) {
+            return Arithmetic.add(left, right);
+        }
+
+        ZrAdd(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * return
+     * 減算
      */
-    static class ZrReturn extends Ast {
+    static class ZrSubtract extends ZrBinaryOperator {
+
         @Override
-        Object calc(World world) {
-            return children.get(0).calc(world);
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        ZrReturn(Ast expression) {
-            super(expression);
+        static Object operate(Object left, Object right) {
+            return Arithmetic.subtract(left, right);
+        }
+
+        ZrSubtract(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * if
+     * 乗算
      */
-    static class ZrPrefix extends Ast {
+    static class ZrMultiply extends ZrBinaryOperator {
 
         @Override
-        Object calc(World world) {
-            Object v = children.get(1).calc(world);
-            switch (((ZrSymbol) children.get(0)).value) {
-            case "+":
-            break;
-            case "-":
-                v = ((BigDecimal) v).negate();
-            break;
-            case "not":
-                v = !(boolean) v;
-            break;
-            case "exists":
-                v = v != null;
-            break;
-            case "empty":
-                v = v == null;
-            break;
-            }
-            return v;
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return Arithmetic.multiply(left, right);
         }
 
-        ZrPrefix(Ast... prefix_primitive) {
-            super(prefix_primitive);
+        ZrMultiply(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 論理値
+     * 除算
      */
-    static class ZrBoolean extends One<Boolean> {
+    static class ZrDivide extends ZrBinaryOperator {
 
-        ZrBoolean(String value) {
-            super("true".equalsIgnoreCase(value));
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
         }
 
-        static final ZrBoolean TRUE = new ZrBoolean("true");
-        static final ZrBoolean FALSE = new ZrBoolean("false");
+        static Object operate(Object left, Object right) {
+            return Arithmetic.divide(left, right);
+        }
+
+        ZrDivide(Ast left, Ast right) {
+            super(left, right);
+        }
     }
 
     /**
-     * 数値
+     * 剰余
      */
-    static class ZrNumber extends One<BigDecimal> {
+    static class ZrRemainder extends ZrBinaryOperator {
 
-        ZrNumber(String value) {
-            super(new BigDecimal(value));
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return Arithmetic.remainder(left, right);
+        }
+
+        ZrRemainder(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 文字列
+     * 整数除算
      */
-    static class ZrString extends One<String> {
+    static class ZrQuotient extends ZrBinaryOperator {
 
-        /**
-         * @param value
-         */
-        ZrString(String value) {
-            super(value);
+        @Override
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return Arithmetic.quotient(left, right);
+        }
+
+        ZrQuotient(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
     /**
-     * 加算
+     * べき乗
      */
-    static class ZrBinaryOperator extends Ast {
+    static class ZrPower extends ZrBinaryOperator {
 
         @Override
-        Object calc(World world) {
-            BigDecimal left = (BigDecimal) children.get(0).calc(world);
-            String operator = ((ZrSymbol) children.get(1)).value;
-            BigDecimal right = (BigDecimal) children.get(2).calc(world);
-            switch (operator) {
-            case "+":
-                return left.add(right);
-            case "-":
-                return left.subtract(right);
-            case "*":
-                return left.multiply(right);
-            case "/":
-                return left.divide(right);
-            case "%":
-                return left.divideAndRemainder(right)[1];
-            case "\\":
-                return left.divideAndRemainder(right)[0];
-            case "^":
-                return left.pow(right.intValue());
-            }
-            throw new RuntimeException("Unsupported operator : " + operator);
+        Object eval(World world) {
+            Object l = left.calc(world);
+            return operate(l, right.calc(world));
+        }
+
+        static Object operate(Object left, Object right) {
+            return Arithmetic.power(left, right);
         }
 
-        ZrBinaryOperator(Ast... left_operator_right) {
-            super(left_operator_right);
+        ZrPower(Ast left, Ast right) {
+            super(left, right);
         }
     }
 
@@ -939,47 +3057,106 @@ public class Zircon {
             super(null);
             this.value = value;
             this.children = Arrays.asList(parameters);
-            Logger.getLogger(getClass().getName()).config(toString());
         }
 
         @Override
-        Object calc(World world) {
-            Object value = this.value.calc(world);
-            if (children.isEmpty())
+        Object eval(World world) {
+            return call(world, value.calc(world), children.size(), i -> children.get(i).calc(world));
+        }
+
+        /**
+         * 呼び出し
+         * @param world 環境
+         * @param value 呼び出し対象の評価結果
+         * @param size 引数の数
+         * @param argument 引数の評価（添字を受け取る）
+         * @return 呼び出し結果
+         */
+        static Object call(World world, Object value, int size, IntFunction<Object> argument) {
+            if (size == 0)
                 return value;
             if (value instanceof ZrNative) {
                 ZrNative n = (ZrNative) value;
-                Object[] args = children.stream().map(i -> i.calc(world)).collect(Collectors.toList()).toArray();
-                try {
-                    return n.method.invoke(n.object, args);
-                } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    error(e);
+                switch (size) {
+                case 1:
+                    return n.invoke(argument.apply(0));
+                case 2:
+                    return n.invoke(argument.apply(0), argument.apply(1));
+                case 3:
+                    return n.invoke(argument.apply(0), argument.apply(1), argument.apply(2));
+                default:
+                    Object[] args = new Object[size];
+                    for (int i = 0; i < size; i++) {
+                        args[i] = argument.apply(i);
+                    }
+                    return n.invoke(args);
                 }
             }
             if (value instanceof ZrFunction) {
                 ZrFunction f = (ZrFunction) value;
                 World newWorld = f.newWorld();
-                int i = 0;
-                for (Ast a : children) {
-                    newWorld.put(f.name(i++), a.calc(world));
+                for (int i = 0; i < size; i++) {
+                    newWorld.put(f.name(i), argument.apply(i));
                 }
-                return f.body.calc(newWorld);
+                return f.invoke(world.governor, newWorld);
             }
-            Object value2 = children.get(0).calc(world);
-            if (value2 instanceof ZrNative) {
-                ZrNative n = (ZrNative) value2;
-                try {
-                    return n.method.invoke(n.object, value);
-                } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    error(e);
+            return receive(world, value, argument.apply(0));
+        }
+
+        /**
+         * 呼び出し（引数は評価済み、コンパイル実行用）
+         * @param world 環境
+         * @param value 呼び出し対象の評価結果
+         * @param arguments 引数の評価結果
+         * @return 呼び出し結果
+         */
+        static Object apply(World world, Object value, Object[] arguments) {
+            int size = arguments.length;
+            if (size == 0)
+                return value;
+            if (value instanceof ZrNative) {
+                ZrNative n = (ZrNative) value;
+                switch (size) {
+                case 1:
+                    return n.invoke(arguments[0]);
+                case 2:
+                    return n.invoke(arguments[0], arguments[1]);
+                case 3:
+                    return n.invoke(arguments[0], arguments[1], arguments[2]);
+                default:
+                    return n.invoke(arguments);
+                }
+            }
+            if (value instanceof ZrFunction) {
+                ZrFunction f = (ZrFunction) value;
+                World newWorld = f.newWorld();
+                for (int i = 0; i < size; i++) {
+                    newWorld.put(f.name(i), arguments[i]);
                 }
+                return f.invoke(world.governor, newWorld);
+            }
+            return receive(world, value, arguments[0]);
+        }
+
+        /**
+         * 値を受け手とする呼び出し（value.function の形式）、辞書の場合は要素の参照
+         * @param world 環境
+         * @param value 受け手
+         * @param value2 最初の引数の評価結果
+         * @return 呼び出し結果
+         */
+        static Object receive(World world, Object value, Object value2) {
+            if (value2 instanceof ZrNative) {
+                return ((ZrNative) value2).invoke(value);
             }
             if (value2 instanceof ZrFunction) {
                 ZrFunction f = (ZrFunction) value2;
                 World newWorld = f.newWorld();
                 newWorld.put(f.name(0), value);
-                return f.body.calc(newWorld);
+                return f.invoke(world.governor, newWorld);
             }
+            if (value instanceof Dictionary && value2 instanceof ZrSymbol)
+                return ((Dictionary) value).get(((ZrSymbol) value2).value).orElse(null);
             throw error(null);
         }
     }
@@ -1006,32 +3183,165 @@ public class Zircon {
             return parameters.get(i);
         }
 
+        /**
+         * 本体を評価（呼び出しの深さを制限する）
+         * @param governor 実行制限
+         * @param newWorld 引数を格納した環境
+         * @return 評価結果
+         */
+        Object invoke(Governor governor, World newWorld) {
+            governor.enter();
+            try {
+                return body.calc(newWorld);
+            } finally {
+                governor.exit();
+            }
+        }
+
         @Override
-        Object calc(World world) {
+        Object eval(World world) {
             return this;
         }
     }
 
     /**
-     * システムコール
+     * システムコール（受け手を束縛済みのメソッドハンドルを引数の数ごとの型に変換して保持）
      */
     static class ZrNative extends Ast {
         @Override
         public String toString() {
-            return method == null ? null : getClass().getName() + '[' + method.getName() + ']';
+            return handle == null ? null : getClass().getName() + '[' + name + ']';
         }
 
-        Method method;
-        Object object;
+        /**
+         * 名前
+         */
+        final String name;
+
+        /**
+         * 呼び出し先
+         */
+        final MethodHandle handle;
+
+        /**
+         * 0～3引数の呼び出し先（(Object...)Objectに変換済み、それ以外の引数の数はnull）
+         */
+        final MethodHandle exact;
+
+        /**
+         * 引数の数
+         */
+        final int arity;
+
+        /**
+         * コンストラクタ
+         * @param name 名前
+         * @param handle 呼び出し先（可変長引数も可）
+         */
+        ZrNative(String name, MethodHandle handle) {
+            this.name = name;
+            this.handle = handle;
+            this.arity = handle.isVarargsCollector() ? -1 : handle.type().parameterCount();
+            this.exact = arity >= 0 && arity <= 3 ? handle.asType(MethodType.genericMethodType(arity)) : null;
+        }
 
+        /**
+         * コンストラクタ
+         * @param method メソッド
+         * @param object 受け手（staticメソッドの場合はnull）
+         */
         ZrNative(Method method, Object object) {
-            this.method = method;
-            this.object = object;
-            Logger.getLogger(getClass().getName()).config(toString());
+            this(method.getName(), bind(method, object));
+        }
+
+        /**
+         * メソッドハンドルに変換
+         * @param method メソッド
+         * @param object 受け手（staticメソッドの場合はnull）
+         * @return 受け手を束縛したメソッドハンドル（可変長引数は束縛後も可変長引数）
+         */
+        static MethodHandle bind(Method method, Object object) {
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+                if (Modifier.isStatic(method.getModifiers()))
+                    return handle;
+                Class<?>[] types = method.getParameterTypes();
+                return method.isVarArgs() ? handle.bindTo(object).asVarargsCollector(types[types.length - 1]) : handle.bindTo(object);
+            } catch (IllegalAccessException e) {
+                throw error(e);
+            }
+        }
+
+        Object invoke() {
+            if (arity != 0)
+                return invoke(new Object[] {});
+            try {
+                return (Object) exact.invokeExact();
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        Object invoke(Object a) {
+            if (arity != 1)
+                return invoke(new Object[] { a });
+            try {
+                return (Object) exact.invokeExact(a);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        Object invoke(Object a, Object b) {
+            if (arity != 2)
+                return invoke(new Object[] { a, b });
+            try {
+                return (Object) exact.invokeExact(a, b);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        Object invoke(Object a, Object b, Object c) {
+            if (arity != 3)
+                return invoke(new Object[] { a, b, c });
+            try {
+                return (Object) exact.invokeExact(a, b, c);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        /**
+         * 呼び出し（呼び出し先の実行時例外はそのまま送出）
+         * @param args 引数
+         * @return 戻り値
+         */
+        Object invoke(Object... args) {
+            if (arity >= 0 && args.length != arity)
+                throw new IllegalArgumentException(name + " expects " + arity + " arguments but " + args.length);
+            try {
+                return handle.invokeWithArguments(args);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+
+        /**
+         * 呼び出し先の例外を実行時例外として送出
+         * @param e 例外
+         * @return 実行時例外（Errorはそのまま送出）
+         */
+        static RuntimeException rethrow(Throwable e) {
+            if (e instanceof RuntimeException)
+                return (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            return new RuntimeException(e);
         }
 
         @Override
-        Object calc(World world) {
+        Object eval(World world) {
             return this;
         }
     }
@@ -1045,8 +3355,20 @@ public class Zircon {
         }
 
         @Override
-        Object calc(World world) {
-            return world.get(value).orElse(this);
+        Object eval(World world) {
+            return load(world, value, this);
+        }
+
+        /**
+         * 変数の値を取得
+         * @param world 環境
+         * @param name 変数名
+         * @param symbol 未定義の場合の値
+         * @return 値
+         */
+        static Object load(World world, String name, ZrSymbol symbol) {
+            Object value = world.lookup(name);
+            return value == null ? symbol : value;
         }
     }
 }
@@ -8,15 +8,21 @@ import javax.validation.constraints.Digits;
 import javax.validation.constraints.Size;
 import javax.ws.rs.DefaultValue;
 
+import org.apache.ibatis.annotations.CacheNamespace;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.SelectProvider;
 import org.apache.ibatis.annotations.UpdateProvider;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.ResultHandler;
 
 public class Account extends Table {
 
     @NotEmpty
     @Size(max = 64)
+    @Unique
     public String login_id;
 
     @NotEmpty
@@ -34,6 +40,7 @@ public class Account extends Table {
     public ZonedDateTime last_login;
 
     @Mapper
+    @CacheNamespace(implementation = EntityCache.class)
     public interface Dao {
 
         @UpdateProvider(type = Account.class, method = "createTable")
@@ -43,9 +50,40 @@ public class Account extends Table {
         void drop();
 
         @SelectProvider(type = Account.class, method = "selectAll")
+        @Options(useCache = false)
         List<Account> selectAll();
 
+        @SelectProvider(type = Account.class, method = "selectAll")
+        @Options(fetchSize = Integer.MIN_VALUE)
+        Cursor<Account> selectCursor();
+
+        @SelectProvider(type = Account.class, method = "selectAll")
+        @Options(fetchSize = Integer.MIN_VALUE)
+        @ResultType(Account.class)
+        void selectEach(ResultHandler<Account> handler);
+
+        @SelectProvider(type = Account.class, method = "count")
+        long count();
+
+        @SelectProvider(type = Account.class, method = "exists")
+        boolean exists(@Param("id") int id);
+
+        @SelectProvider(type = Account.class, method = "selectById")
+        Account selectById(@Param("id") int id);
+
+        @SelectProvider(type = Account.class, method = "selectColumns")
+        @Options(useCache = false)
+        List<Account> selectColumns(@Param("columns") String... columns);
+
+        @SelectProvider(type = Account.class, method = "selectBy")
+        Account selectByLogin_id(@Param("login_id") String login_id);
+
+        @SelectProvider(type = Account.class, method = "selectPage")
+        @Options(useCache = false)
+        List<Account> selectPage(@Param("afterId") int afterId, @Param("limit") int limit);
+
         @UpdateProvider(type = Account.class, method = "save")
+        @Options(useGeneratedKeys = true, keyProperty = "data.id")
         void save(@Param("data") Account data, @Param("all") boolean all);
     }
 }
@@ -0,0 +1,239 @@
+package zircon.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * エンティティの2次キャッシュ（@CacheNamespace(implementation = EntityCache.class) で@Mapperに設定）
+ * 件数の上限を超えたら最も長く参照されていないものから破棄し、有効期限を過ぎたものは参照時に破棄する
+ * 同じ名前空間の更新系ステートメント（save, dropなど）の実行で全件破棄される
+ * 呼び出し側が変更しても影響しないよう、エンティティは格納時と取得時に複写する
+ */
+public class EntityCache implements Cache, EntityCacheMXBean {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(EntityCache.class.getName());
+
+    /**
+     * 格納値
+     */
+    static class Item {
+
+        /**
+         * 値
+         */
+        final Object value;
+
+        /**
+         * 有効期限（System.nanoTime）
+         */
+        final long expires;
+
+        /**
+         * コンストラクタ
+         * @param value 値
+         * @param expires 有効期限
+         */
+        Item(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * 名前空間
+     */
+    final String id;
+
+    /**
+     * 件数の上限
+     */
+    final int capacity;
+
+    /**
+     * 有効期間（ナノ秒、0:無期限）
+     */
+    final long ttl;
+
+    /**
+     * 格納値（参照順）
+     */
+    final LinkedHashMap<Object, Item> entries;
+
+    /**
+     * 統計情報
+     */
+    final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder(), expirations = new LongAdder();
+
+    /**
+     * コンストラクタ（システムプロパティ zircon.db.cache.size, ttl（ミリ秒）で設定、MyBatisから呼ばれる）
+     * @param id 名前空間
+     */
+    public EntityCache(String id) {
+        this(id, Integer.getInteger("zircon.db.cache.size", 1024), Long.getLong("zircon.db.cache.ttl", 60_000L));
+        register();
+    }
+
+    /**
+     * コンストラクタ
+     * @param id 名前空間
+     * @param capacity 件数の上限
+     * @param ttl 有効期間（ミリ秒、0:無期限）
+     */
+    EntityCache(String id, int capacity, long ttl) {
+        this.id = id;
+        this.capacity = capacity;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.entries = new LinkedHashMap<Object, Item>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Item> eldest) {
+                if (size() <= EntityCache.this.capacity)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 統計情報をJMXに登録（zircon:type=EntityCache,name=名前空間、登録済みの場合は置き換え）
+     */
+    void register() {
+        try {
+            ObjectName name = new ObjectName("zircon:type=EntityCache,name=" + ObjectName.quote(id));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // 再デプロイ前の登録は古いインスタンスを参照しているため置き換える
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            logger.log(Level.WARNING, "entity cache statistics not registered", e);
+        }
+    }
+
+    /**
+     * @param value 値
+     * @return エンティティ（リストの要素を含む）を複写した値
+     */
+    static Object copy(Object value) {
+        if (value instanceof Table)
+            return Table.meta(value.getClass()).copy(value);
+        if (value instanceof List)
+            return ((List<?>) value).stream().map(EntityCache::copy).collect(Collectors.toList());
+        return value;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+        if (value == null) {
+            removeObject(key);
+            return;
+        }
+        Item entry = new Item(copy(value), ttl == 0 ? Long.MAX_VALUE : System.nanoTime() + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    @Override
+    public Object getObject(Object key) {
+        Item entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires - System.nanoTime() < 0) {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(entry.value);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+        Item entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+        return null;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHits(), total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return id + ": size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                + ", expirations=" + getExpirations();
+    }
+}
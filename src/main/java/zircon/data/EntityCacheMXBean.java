@@ -0,0 +1,37 @@
+package zircon.data;
+
+/**
+ * キャッシュの統計情報
+ */
+public interface EntityCacheMXBean {
+
+    /**
+     * @return 格納数
+     */
+    int getSize();
+
+    /**
+     * @return 取得できた回数
+     */
+    long getHits();
+
+    /**
+     * @return 取得できなかった回数
+     */
+    long getMisses();
+
+    /**
+     * @return 上限を超えて破棄した数
+     */
+    long getEvictions();
+
+    /**
+     * @return 有効期限切れで破棄した数
+     */
+    long getExpirations();
+
+    /**
+     * @return 取得できた割合
+     */
+    double getHitRatio();
+}
@@ -0,0 +1,29 @@
+package zircon.data;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 索引（フィールドに付けるとその列、クラスに付けると指定した列の複合索引）
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.TYPE })
+@Repeatable(Index.List.class)
+public @interface Index {
+    /**
+     * @return 列名（クラスに付ける場合のみ）
+     */
+    String[] value() default {};
+
+    /**
+     * @return 複数の索引
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ ElementType.FIELD, ElementType.TYPE })
+    @interface List {
+        Index[] value();
+    }
+}
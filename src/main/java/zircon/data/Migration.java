@@ -0,0 +1,193 @@
+package zircon.data;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * スキーマの移行（DBの現在の定義とエンティティの定義を比較し、不足分だけ変更する）
+ * 列の追加、VARCHARの拡張、DECIMALの桁の拡張、索引の追加のみ行い、データを失う変更（削除、縮小）は行わない
+ */
+public class Migration {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(Migration.class.getName());
+
+    /**
+     * DBの列定義
+     */
+    static class Live {
+
+        /**
+         * 型名（大文字）
+         */
+        final String type;
+
+        /**
+         * 桁数または文字数
+         */
+        final int size;
+
+        /**
+         * 小数部の桁数
+         */
+        final int scale;
+
+        /**
+         * コンストラクタ
+         * @param type 型名
+         * @param size 桁数または文字数
+         * @param scale 小数部の桁数
+         */
+        Live(String type, int size, int scale) {
+            this.type = type.toUpperCase(Locale.ROOT);
+            this.size = size;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * エンティティの定義に合わせてDBを変更
+     * @param factory SqlSessionFactory
+     * @param types エンティティクラス
+     * @return 実行したSQL
+     */
+    @SafeVarargs
+    public static List<String> migrate(SqlSessionFactory factory, Class<? extends Table>... types) {
+        try (SqlSession session = factory.openSession(true)) {
+            return migrate(session.getConnection(), types);
+        }
+    }
+
+    /**
+     * エンティティの定義に合わせてDBを変更
+     * @param connection 接続
+     * @param types エンティティクラス
+     * @return 実行したSQL
+     */
+    @SafeVarargs
+    public static List<String> migrate(Connection connection, Class<? extends Table>... types) {
+        List<String> executed = new ArrayList<>();
+        try (Statement statement = connection.createStatement()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (Class<? extends Table> type : types) {
+                Table.Meta meta = Table.meta(type);
+                for (String sql : plan(meta, columns(metaData, connection.getCatalog(), meta.name),
+                        indexes(metaData, connection.getCatalog(), meta.name))) {
+                    logger.info(sql);
+                    statement.execute(sql);
+                    executed.add(sql);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return executed;
+    }
+
+    /**
+     * @param metaData DBの定義
+     * @param catalog カタログ
+     * @param table テーブル名
+     * @return 列名（小文字）とDBの列定義（テーブルがなければ空）
+     * @throws SQLException 取得できない
+     */
+    static Map<String, Live> columns(DatabaseMetaData metaData, String catalog, String table) throws SQLException {
+        Map<String, Live> columns = new LinkedHashMap<>();
+        try (ResultSet rs = metaData.getColumns(catalog, null, table, null)) {
+            while (rs.next()) {
+                columns.put(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT),
+                        new Live(rs.getString("TYPE_NAME"), rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS")));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param metaData DBの定義
+     * @param catalog カタログ
+     * @param table テーブル名
+     * @return 索引名（小文字）
+     * @throws SQLException 取得できない
+     */
+    static Set<String> indexes(DatabaseMetaData metaData, String catalog, String table) throws SQLException {
+        Set<String> indexes = new HashSet<>();
+        try (ResultSet rs = metaData.getIndexInfo(catalog, null, table, false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name != null)
+                    indexes.add(name.toLowerCase(Locale.ROOT));
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * @param meta エンティティの定義
+     * @param columns DBの列定義（テーブルがなければ空）
+     * @param indexes DBの索引名（小文字）
+     * @return 必要なSQL
+     */
+    static List<String> plan(Table.Meta meta, Map<String, Live> columns, Set<String> indexes) {
+        List<String> sqls = new ArrayList<>();
+        if (columns.isEmpty()) {
+            sqls.add(meta.createTable);
+            return sqls;
+        }
+        for (Table.Column column : meta.columns) {
+            Live live = columns.get(column.name.toLowerCase(Locale.ROOT));
+            if (live == null) {
+                sqls.add("ALTER TABLE " + meta.name + " ADD COLUMN " + column.definition);
+            } else if (wider(column, live)) {
+                sqls.add("ALTER TABLE " + meta.name + " MODIFY COLUMN " + column.definition);
+            }
+        }
+        for (Table.Key key : meta.keys) {
+            if (!indexes.contains(key.name.toLowerCase(Locale.ROOT)))
+                sqls.add("ALTER TABLE " + meta.name + " ADD " + key.definition);
+        }
+        return sqls;
+    }
+
+    /**
+     * @param column エンティティの列定義
+     * @param live DBの列定義
+     * @return DBの列を拡張する必要があるか（縮小が必要な場合は警告のみ）
+     */
+    static boolean wider(Table.Column column, Live live) {
+        if (column.id || column.timestamp != null)
+            return false;
+        if (column.length > 0 && live.type.contains("CHAR")) {
+            if (column.length < live.size)
+                logger.warning("not narrowed: " + column.name + " " + live.size + " -> " + column.length);
+            return column.length > live.size;
+        }
+        if (column.precision > 0 && live.type.equals("DECIMAL")) {
+            int integer = column.precision - column.scale;
+            int liveInteger = live.size - live.scale;
+            if (integer < liveInteger || column.scale < live.scale) {
+                if (integer != liveInteger || column.scale != live.scale)
+                    logger.warning("not narrowed: " + column.name + " (" + live.size + "," + live.scale + ") -> (" + column.precision
+                            + "," + column.scale + ")");
+                return false;
+            }
+            return integer > liveInteger || column.scale > live.scale;
+        }
+        return false;
+    }
+}
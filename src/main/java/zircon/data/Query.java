@@ -0,0 +1,287 @@
+package zircon.data;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import zircon.Zircon;
+import zircon.Zircon.Dictionary;
+
+/**
+ * スクリプトからのDB参照（実行ごとに作成し、実行の終了時に閉じる）
+ * query(sql, 引数...)で行カーソルを開き、next(カーソル)で1行ずつ、each(カーソル, 関数)で全行を読み込みながら処理する
+ * 行は列名をキーとする辞書、同じSQLのPreparedStatementは再利用し、同時に開いておけるカーソルは1つ（新しいカーソルを開くと前のカーソルは閉じる）
+ */
+public class Query implements AutoCloseable {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(Query.class.getName());
+
+    /**
+     * 既定の1回に取得する行数（システムプロパティ zircon.script.fetchSize で変更可、MySQLではInteger.MIN_VALUEで1行ずつ取得）
+     */
+    static final int defaultFetchSize = Integer.getInteger("zircon.script.fetchSize", Integer.MIN_VALUE);
+
+    /**
+     * 組み込み関数の名前
+     */
+    static final List<String> names = Arrays.asList("query", "next", "each");
+
+    /**
+     * SqlSessionFactory
+     */
+    final SqlSessionFactory factory;
+
+    /**
+     * 1回に取得する行数
+     */
+    final int fetchSize;
+
+    /**
+     * セッション（最初の問い合わせで開く）
+     */
+    SqlSession session;
+
+    /**
+     * SQLと準備済みの文
+     */
+    final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * 開いているカーソル
+     */
+    Rows current;
+
+    /**
+     * 実行制限の確認（{@link #install(Dictionary)}で実行の制限に置き換える）
+     */
+    Runnable step = () -> {
+    };
+
+    /**
+     * コンストラクタ
+     * @param factory SqlSessionFactory
+     */
+    public Query(SqlSessionFactory factory) {
+        this(factory, defaultFetchSize);
+    }
+
+    /**
+     * コンストラクタ
+     * @param factory SqlSessionFactory
+     * @param fetchSize 1回に取得する行数
+     */
+    public Query(SqlSessionFactory factory, int fetchSize) {
+        this.factory = factory;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * スクリプトの環境に組み込み関数（query, next, each）を設定し、その実行の実行制限を取得
+     * @param world 環境
+     */
+    public void install(Dictionary world) {
+        step = Zircon.step(world);
+        for (Method method : Query.class.getMethods()) {
+            if (names.contains(method.getName()))
+                world.put(method.getName(), Zircon.function(method.getName(), method, this));
+        }
+    }
+
+    /**
+     * 問い合わせ（前のカーソルは閉じる）
+     * @param sql SELECT文（?で引数を参照）
+     * @param parameters 引数
+     * @return 行カーソル
+     */
+    public Rows query(String sql, Object... parameters) {
+        closeCurrent();
+        try {
+            PreparedStatement statement = statement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            current = new Rows(statement.executeQuery());
+            return current;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param rows 行カーソル
+     * @return 次の行（終わりの場合はnull）
+     */
+    public Dictionary next(Rows rows) {
+        return rows.hasNext() ? rows.next() : null;
+    }
+
+    /**
+     * 全行を1行ずつ関数に渡す（1行ごとに評価1ステップとして実行制限を確認）
+     * @param rows 行カーソル
+     * @param function 関数（スクリプトの関数またはホスト関数）
+     * @return 行数
+     */
+    public long each(Rows rows, Object function) {
+        long count = 0;
+        while (rows.hasNext()) {
+            step.run();
+            Zircon.call(function, rows.next());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param sql SQL
+     * @return 準備済みの文（同じSQLは再利用）
+     * @throws SQLException 準備できない
+     */
+    PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            if (session == null)
+                session = factory.openSession();
+            statement = session.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * 開いているカーソルを閉じる
+     */
+    void closeCurrent() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * カーソル、文、セッションを閉じる
+     */
+    @Override
+    public void close() {
+        closeCurrent();
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "statement not closed", e);
+            }
+        }
+        statements.clear();
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+
+    /**
+     * JDBCの値をスクリプトの値に変換（整数はLong、小数はBigDecimal）
+     * @param value JDBCの値
+     * @return スクリプトの値
+     */
+    static Object value(Object value) {
+        if (value instanceof Long || value instanceof BigDecimal)
+            return value;
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        if (value instanceof BigInteger)
+            return ((BigInteger) value).bitLength() < 64 ? (Object) ((BigInteger) value).longValue() : new BigDecimal((BigInteger) value);
+        if (value instanceof Number)
+            return new BigDecimal(value.toString());
+        return value;
+    }
+
+    /**
+     * 行カーソル（読み込みながら1行ずつ辞書に変換）
+     */
+    public static class Rows implements Iterator<Dictionary>, AutoCloseable {
+
+        /**
+         * 結果
+         */
+        final ResultSet resultSet;
+
+        /**
+         * 列名
+         */
+        final String[] labels;
+
+        /**
+         * 次の行を読み込み済みか
+         */
+        Boolean ready;
+
+        /**
+         * コンストラクタ
+         * @param resultSet 結果
+         * @throws SQLException 列名を取得できない
+         */
+        Rows(ResultSet resultSet) throws SQLException {
+            this.resultSet = resultSet;
+            ResultSetMetaData meta = resultSet.getMetaData();
+            this.labels = new String[meta.getColumnCount()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = meta.getColumnLabel(i + 1);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (ready == null) {
+                try {
+                    ready = !resultSet.isClosed() && resultSet.next();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return ready;
+        }
+
+        @Override
+        public Dictionary next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ready = null;
+            try {
+                Dictionary row = Zircon.can();
+                for (int i = 0; i < labels.length; i++) {
+                    row.put(labels[i], value(resultSet.getObject(i + 1)));
+                }
+                return row;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+                logger.log(Level.WARNING, "result set not closed", e);
+            }
+        }
+    }
+}
@@ -1,8 +1,18 @@
 package zircon.data;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -11,6 +21,13 @@ import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import javax.ws.rs.DefaultValue;
 
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import zircon.util.Producer;
+
 public class Table {
     @Id
     public int id;
@@ -21,70 +38,606 @@ public class Table {
     @Timestamp(true)
     public ZonedDateTime update_time;
 
-    public String save(Table data, boolean all) {
-        return Stream.of(getClass().getFields()).filter(f -> f.isAnnotationPresent(Id.class)).findFirst().map(f -> {
-            try {
-                if (f.getInt(data) == 0) {
-                    return "INSERT";
+    /**
+     * クラスごとのテーブル定義（初回参照時に作成）
+     */
+    static final ClassValue<Meta> metas = new ClassValue<Meta>() {
+        @Override
+        protected Meta computeValue(Class<?> type) {
+            return new Meta(type);
+        }
+    };
+
+    /**
+     * @param type エンティティクラス
+     * @return テーブル定義
+     */
+    public static Meta meta(Class<?> type) {
+        return metas.get(type);
+    }
+
+    /**
+     * 保存（自動採番列が0ならINSERT、それ以外はUPDATE、自動採番列がなければINSERT ... ON DUPLICATE KEY UPDATE）
+     * @param parameter data:エンティティ, all:true ならnullの列も保存、false ならnullでない列のみ
+     * @return SQL
+     */
+    public String save(Map<String, Object> parameter) {
+        Meta meta = meta(getClass());
+        Object data = parameter.get("data");
+        boolean all = Boolean.TRUE.equals(parameter.get("all"));
+        if (!meta.id.isPresent())
+            return all ? meta.upsert : meta.upsert(meta.present(data));
+        if (((Number) meta.id.get().get(data)).longValue() == 0)
+            return all ? meta.insert : meta.insert(meta.present(data));
+        return all ? meta.update : meta.update(meta.present(data));
+    }
+
+    /**
+     * 一括保存（BATCHで実行し、zircon.db.batchSize 件ごとに送信、全件成功した場合のみコミット、nullでない列のみ保存）
+     * @param rows 保存するエンティティ
+     * @return 保存した件数
+     */
+    public static int saveAll(List<? extends Table> rows) {
+        return saveAll(rows, false);
+    }
+
+    /**
+     * 一括保存（BATCHで実行し、zircon.db.batchSize 件ごとに送信、全件成功した場合のみコミット）
+     * @param rows 保存するエンティティ
+     * @param all true ならnullの列も保存、false ならnullでない列のみ
+     * @return 保存した件数
+     */
+    public static int saveAll(List<? extends Table> rows, boolean all) {
+        return saveAll(Producer.factory(), rows, batchSize, all);
+    }
+
+    /**
+     * 一括保存の送信単位
+     */
+    static final int batchSize = Integer.getInteger("zircon.db.batchSize", 1000);
+
+    /**
+     * 一括保存（BATCHで実行し、指定件数ごとに送信、全件成功した場合のみコミット、nullでない列のみ保存）
+     * @param factory SqlSessionFactory
+     * @param rows 保存するエンティティ
+     * @param batchSize 送信単位
+     * @return 保存した件数
+     */
+    public static int saveAll(SqlSessionFactory factory, List<? extends Table> rows, int batchSize) {
+        return saveAll(factory, rows, batchSize, false);
+    }
+
+    /**
+     * 一括保存（BATCHで実行し、指定件数ごとに送信、全件成功した場合のみコミット）
+     * @param factory SqlSessionFactory
+     * @param rows 保存するエンティティ
+     * @param batchSize 送信単位
+     * @param all true ならnullの列も保存、false ならnullでない列のみ（{@link #save(Map)}と同じ、行ごとに列が異なるとSQLが変わりまとめて送信されない）
+     * @return 保存した件数
+     */
+    public static int saveAll(SqlSessionFactory factory, List<? extends Table> rows, int batchSize, boolean all) {
+        try (SqlSession session = factory.openSession(ExecutorType.BATCH, false)) {
+            int count = 0;
+            for (Table row : rows) {
+                Map<String, Object> parameter = new HashMap<>();
+                parameter.put("data", row);
+                parameter.put("all", all);
+                session.update(meta(row.getClass()).save(), parameter);
+                if (++count % batchSize == 0)
+                    session.flushStatements();
+            }
+            session.commit();
+            return count;
+        }
+    }
+
+    public String createTable() {
+        return meta(getClass()).createTable;
+    }
+
+    public String dropTable() {
+        return meta(getClass()).dropTable;
+    }
+
+    public String selectAll() {
+        return meta(getClass()).selectAll;
+    }
+
+    public String count() {
+        return meta(getClass()).count;
+    }
+
+    /**
+     * 自動採番値（パラメータ id）の行が存在するか
+     * @return SQL
+     */
+    public String exists() {
+        return meta(getClass()).byId().exists;
+    }
+
+    /**
+     * 自動採番値（パラメータ id）の行を取得
+     * @return SQL
+     */
+    public String selectById() {
+        return meta(getClass()).byId().selectById;
+    }
+
+    /**
+     * 指定した列のみ取得（パラメータ columns は列名の配列またはコレクション、定義にない列名はエラー）
+     * @param parameter columns:列名
+     * @return SQL
+     */
+    public String selectColumns(Map<String, Object> parameter) {
+        Meta meta = meta(getClass());
+        Object columns = parameter.get("columns");
+        Stream<?> names = columns instanceof Collection ? ((Collection<?>) columns).stream() : Stream.of((Object[]) columns);
+        return "SELECT " + names.map(name -> meta.column(String.valueOf(name)).name).collect(Collectors.joining(", ")) + " FROM "
+                + meta.name;
+    }
+
+    /**
+     * 索引のある列による取得（パラメータ名を列名とし、複数の場合はAND、MyBatisが付加する param1, param2... は無視）
+     * @param parameter 列名:値
+     * @return SQL
+     */
+    public String selectBy(Map<String, Object> parameter) {
+        return meta(getClass()).selectBy(parameter.keySet().stream().filter(k -> !k.matches("param\\d+")).sorted()
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * 自動採番列によるページ単位の取得（パラメータ afterId より後を limit 件、自動採番列の順）
+     * @return SQL
+     */
+    public String selectPage() {
+        return meta(getClass()).byId().selectPage;
+    }
+
+    /**
+     * テーブル定義（列と制約、SQLはクラスごとに一度だけ作成）
+     */
+    public static class Meta {
+
+        /**
+         * エンティティクラス
+         */
+        public final Class<?> type;
+
+        /**
+         * テーブル名
+         */
+        public final String name;
+
+        /**
+         * 列（public フィールドの順）
+         */
+        public final List<Column> columns;
+
+        /**
+         * 自動採番列
+         */
+        public final Optional<Column> id;
+
+        /**
+         * 現在日時自動設定列
+         */
+        public final List<Column> timestamps;
+
+        /**
+         * CREATE TABLE文
+         */
+        final String createTable;
+
+        /**
+         * DROP TABLE文
+         */
+        final String dropTable;
+
+        /**
+         * 全件SELECT文
+         */
+        final String selectAll;
+
+        /**
+         * 列名と列の対応
+         */
+        final Map<String, Column> names;
+
+        /**
+         * 索引と一意制約
+         */
+        public final List<Key> keys;
+
+        /**
+         * 索引のある列の条件によるSELECT文（キーは列名をカンマ区切り）
+         */
+        final Map<String, String> selectBy = new ConcurrentHashMap<>();
+
+        /**
+         * 件数のSELECT文
+         */
+        final String count;
+
+        /**
+         * ページ単位のSELECT文（自動採番列がない場合はnull）
+         */
+        final String selectPage;
+
+        /**
+         * 存在確認のSELECT文（自動採番列がない場合はnull）
+         */
+        final String exists;
+
+        /**
+         * 自動採番値によるSELECT文（自動採番列がない場合はnull）
+         */
+        final String selectById;
+
+        /**
+         * 保存する列（自動採番列と現在日時自動設定列以外）
+         */
+        final List<Column> values;
+
+        /**
+         * 全列のINSERT文
+         */
+        final String insert;
+
+        /**
+         * 全列のUPDATE文（自動採番列がない場合はnull）
+         */
+        final String update;
+
+        /**
+         * 全列のINSERT ... ON DUPLICATE KEY UPDATE文
+         */
+        final String upsert;
+
+        /**
+         * 保存のステートメントID（入れ子の@Mapperインタフェースのsaveメソッド、ない場合はnull）
+         */
+        final String save;
+
+        /**
+         * コンストラクタ
+         * @param type エンティティクラス
+         */
+        Meta(Class<?> type) {
+            this.type = type;
+            this.name = type.getSimpleName();
+            this.columns = Collections.unmodifiableList(Stream.of(type.getFields()).map(Column::new).collect(Collectors.toList()));
+            this.id = columns.stream().filter(c -> c.id).findFirst();
+            this.names = Collections.unmodifiableMap(columns.stream().collect(Collectors.toMap(c -> c.name, c -> c)));
+            List<Key> keys = new ArrayList<>();
+            for (Column c : columns) {
+                Stream.of(c.field.getAnnotationsByType(Unique.class)).forEach(u -> keys.add(new Key(this, true, c.name)));
+                Stream.of(c.field.getAnnotationsByType(Index.class)).forEach(i -> keys.add(new Key(this, false, c.name)));
+            }
+            Stream.of(type.getAnnotationsByType(Unique.class)).forEach(u -> keys.add(new Key(this, true, u.value())));
+            Stream.of(type.getAnnotationsByType(Index.class)).forEach(i -> keys.add(new Key(this, false, i.value())));
+            this.keys = Collections.unmodifiableList(keys);
+            this.timestamps = Collections
+                    .unmodifiableList(columns.stream().filter(c -> c.timestamp != null).collect(Collectors.toList()));
+            this.createTable = "CREATE TABLE IF NOT EXISTS " + name + '('
+                    + Stream.concat(columns.stream().map(c -> c.definition), keys.stream().map(k -> k.definition))
+                            .collect(Collectors.joining(", "))
+                    + ')';
+            this.dropTable = "DROP TABLE IF EXISTS " + name;
+            this.selectAll = "SELECT * FROM " + name;
+            this.count = "SELECT COUNT(*) FROM " + name;
+            this.selectPage = id.map(c -> selectAll + " WHERE " + c.name + " > #{afterId} ORDER BY " + c.name + " LIMIT #{limit}")
+                    .orElse(null);
+            this.exists = id.map(c -> "SELECT EXISTS(SELECT 1 FROM " + name + " WHERE " + c.name + " = #{id})").orElse(null);
+            this.selectById = id.map(c -> selectAll + " WHERE " + c.name + " = #{id}").orElse(null);
+            this.values = Collections.unmodifiableList(
+                    columns.stream().filter(c -> !c.id && c.timestamp == null).collect(Collectors.toList()));
+            this.insert = insert(values);
+            this.update = id.isPresent() ? update(values) : null;
+            this.upsert = upsert(values);
+            this.save = Stream.of(type.getClasses()).filter(c -> c.isInterface() && c.isAnnotationPresent(Mapper.class))
+                    .filter(c -> Stream.of(c.getMethods()).anyMatch(m -> m.getName().equals("save"))).findFirst()
+                    .map(c -> c.getName() + ".save").orElse(null);
+        }
+
+        /**
+         * @return 自動採番列がある場合は自身（ない場合はエラー）
+         */
+        Meta byId() {
+            if (!id.isPresent())
+                throw new IllegalArgumentException("no id column in " + name);
+            return this;
+        }
+
+        /**
+         * @param names 列名（昇順）
+         * @return 列の条件によるSELECT文（索引のない列を含む場合はエラー）
+         */
+        String selectBy(List<String> names) {
+            return selectBy.computeIfAbsent(String.join(",", names), key -> {
+                if (names.isEmpty())
+                    throw new IllegalArgumentException("no column specified for " + name);
+                for (String i : names) {
+                    if (!column(i).id && keys.stream().noneMatch(k -> k.columns.contains(i)))
+                        throw new IllegalArgumentException("no index on " + name + "." + i);
                 }
-                return "UPDATE";
-            } catch (Exception e) {
+                return selectAll + " WHERE " + names.stream().map(i -> i + " = #{" + i + '}').collect(Collectors.joining(" AND "));
+            });
+        }
+
+        /**
+         * @param name 列名
+         * @return 列（定義にない場合はエラー）
+         */
+        public Column column(String name) {
+            Column column = names.get(name);
+            if (column == null)
+                throw new IllegalArgumentException("no column " + name + " in " + this.name);
+            return column;
+        }
+
+        /**
+         * @param data エンティティ
+         * @return 全列の値を複写したエンティティ
+         */
+        Object copy(Object data) {
+            try {
+                Object copy = type.getDeclaredConstructor().newInstance();
+                columns.forEach(c -> c.set(copy, c.get(data)));
+                return copy;
+            } catch (ReflectiveOperationException e) {
                 throw new RuntimeException(e);
             }
-        }).orElse("INSERT ON UPDATE");
+        }
+
+        /**
+         * @param data エンティティ
+         * @return nullでない保存する列
+         */
+        List<Column> present(Object data) {
+            return values.stream().filter(c -> c.get(data) != null).collect(Collectors.toList());
+        }
+
+        /**
+         * @param columns 列
+         * @return INSERT文
+         */
+        String insert(List<Column> columns) {
+            return "INSERT INTO " + name + '(' + columns.stream().map(c -> c.name).collect(Collectors.joining(", ")) + ") VALUES("
+                    + columns.stream().map(c -> c.parameter).collect(Collectors.joining(", ")) + ')';
+        }
+
+        /**
+         * @param columns 列
+         * @return UPDATE文（列がなければ何も変更しない）
+         */
+        String update(List<Column> columns) {
+            Column key = id.get();
+            return "UPDATE " + name + " SET "
+                    + (columns.isEmpty() ? key.name + " = " + key.name
+                            : columns.stream().map(c -> c.name + " = " + c.parameter).collect(Collectors.joining(", ")))
+                    + " WHERE " + key.name + " = " + key.parameter;
+        }
+
+        /**
+         * @param columns 列
+         * @return INSERT ... ON DUPLICATE KEY UPDATE文
+         */
+        String upsert(List<Column> columns) {
+            return columns.isEmpty() ? insert(columns)
+                    : insert(columns) + " ON DUPLICATE KEY UPDATE "
+                            + columns.stream().map(c -> c.name + " = VALUES(" + c.name + ')').collect(Collectors.joining(", "));
+        }
+
+        /**
+         * @return 保存のステートメントID
+         */
+        String save() {
+            if (save == null)
+                throw new IllegalArgumentException("no mapper with save method in " + type.getName());
+            return save;
+        }
     }
 
-    public String createTable() {
-        StringBuilder s = new StringBuilder("CREATE TABLE IF NOT EXISTS ");
-        Class<?> t = getClass();
-        s.append(t.getSimpleName()).append('(');
-        s.append(Stream.of(t.getFields()).map(f -> {
-            StringBuilder ss = new StringBuilder(f.getName());
-            Class<?> tt = f.getType();
-            Timestamp timestamp;
-            String suffix = Optional.ofNullable(f.getDeclaredAnnotation(DefaultValue.class)).map(d -> " DEFAULT '" + d.value() + "'")
-                    .orElse("");
-            if (f.isAnnotationPresent(Id.class)) {
-                ss.append(" SERIAL PRIMARY KEY");
-            } else if ((timestamp = f.getDeclaredAnnotation(Timestamp.class)) != null) {
-                ss.append(" TIMESTAMP");
+    /**
+     * 索引または一意制約
+     */
+    public static class Key {
+
+        /**
+         * 一意制約か
+         */
+        public final boolean unique;
+
+        /**
+         * 列名
+         */
+        public final List<String> columns;
+
+        /**
+         * 名前（ux_テーブル_列 または ix_テーブル_列）
+         */
+        public final String name;
+
+        /**
+         * 定義（CREATE TABLE用）
+         */
+        public final String definition;
+
+        /**
+         * コンストラクタ
+         * @param meta テーブル定義
+         * @param unique 一意制約か
+         * @param columns 列名（定義にない場合はエラー）
+         */
+        Key(Meta meta, boolean unique, String... columns) {
+            if (columns.length == 0)
+                throw new IllegalArgumentException("no column specified for key on " + meta.name);
+            this.unique = unique;
+            this.columns = Collections.unmodifiableList(Stream.of(columns).map(c -> meta.column(c).name).collect(Collectors.toList()));
+            this.name = (unique ? "ux_" : "ix_") + meta.name + '_' + String.join("_", columns);
+            this.definition = (unique ? "UNIQUE KEY " : "INDEX ") + name + " (" + String.join(", ", columns) + ')';
+        }
+    }
+
+    /**
+     * 列定義
+     */
+    public static class Column {
+
+        /**
+         * フィールド
+         */
+        public final Field field;
+
+        /**
+         * 列名
+         */
+        public final String name;
+
+        /**
+         * 値の型
+         */
+        public final Class<?> type;
+
+        /**
+         * 自動採番列か
+         */
+        public final boolean id;
+
+        /**
+         * 現在日時自動設定（null:なし）
+         */
+        public final Timestamp timestamp;
+
+        /**
+         * NOT NULL制約があるか
+         */
+        public final boolean notNull;
+
+        /**
+         * 初期値（null:なし）
+         */
+        public final String defaultValue;
+
+        /**
+         * 全体の桁数（@Digits、なければ0）
+         */
+        public final int precision;
+
+        /**
+         * 小数部の桁数（@Digits、なければ0）
+         */
+        public final int scale;
+
+        /**
+         * 最大文字数（@Size、なければ0）
+         */
+        public final int length;
+
+        /**
+         * 列定義（CREATE TABLE用）
+         */
+        public final String definition;
+
+        /**
+         * パラメータの参照（#{data.列名}）
+         */
+        final String parameter;
+
+        /**
+         * 値の取得
+         */
+        final MethodHandle getter;
+
+        /**
+         * 値の設定
+         */
+        final MethodHandle setter;
+
+        /**
+         * コンストラクタ
+         * @param field フィールド
+         */
+        Column(Field field) {
+            this.field = field;
+            this.name = field.getName();
+            this.type = field.getType();
+            this.id = field.isAnnotationPresent(Id.class);
+            this.timestamp = field.getDeclaredAnnotation(Timestamp.class);
+            this.notNull = field.isAnnotationPresent(NotEmpty.class) || field.isAnnotationPresent(NotNull.class);
+            this.defaultValue = Optional.ofNullable(field.getDeclaredAnnotation(DefaultValue.class)).map(DefaultValue::value).orElse(null);
+            Digits digits = field.getDeclaredAnnotation(Digits.class);
+            Size size = field.getDeclaredAnnotation(Size.class);
+            this.precision = digits == null ? 0 : digits.integer() + digits.fraction();
+            this.scale = digits == null ? 0 : digits.fraction();
+            this.length = digits == null && size != null ? size.max() : 0;
+            this.definition = definition();
+            this.parameter = "#{data." + name + '}';
+            try {
+                this.getter = MethodHandles.publicLookup().unreflectGetter(field);
+                this.setter = MethodHandles.publicLookup().unreflectSetter(field);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @param object エンティティ
+         * @return 値
+         */
+        public Object get(Object object) {
+            try {
+                return getter.invoke(object);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @param object エンティティ
+         * @param value 値
+         */
+        public void set(Object object, Object value) {
+            try {
+                setter.invoke(object, value);
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return 列定義
+         */
+        String definition() {
+            StringBuilder s = new StringBuilder(name);
+            String suffix = defaultValue == null ? "" : " DEFAULT '" + defaultValue + "'";
+            if (id) {
+                s.append(" SERIAL PRIMARY KEY");
+            } else if (timestamp != null) {
+                s.append(" TIMESTAMP");
                 suffix = " DEFAULT CURRENT_TIMESTAMP";
                 if (timestamp.value()) {
                     suffix += " ON UPDATE CURRENT_TIMESTAMP";
                 }
-            } else if (String.class.isAssignableFrom(tt)) {
-                ss.append(" VARCHAR");
-            } else if (BigDecimal.class.isAssignableFrom(tt)) {
-                ss.append(" DECIMAL");
-            } else if (Integer.class.isAssignableFrom(tt)) {
-                ss.append(" INT");
-            } else if (ZonedDateTime.class.isAssignableFrom(tt)) {
-                ss.append(" DATETIME");
+            } else if (String.class.isAssignableFrom(type)) {
+                s.append(" VARCHAR");
+            } else if (BigDecimal.class.isAssignableFrom(type)) {
+                s.append(" DECIMAL");
+            } else if (Integer.class.isAssignableFrom(type) || type == int.class) {
+                s.append(" INT");
+            } else if (ZonedDateTime.class.isAssignableFrom(type)) {
+                s.append(" DATETIME");
             }
-            Digits digits;
-            Size size;
-            if ((digits = f.getDeclaredAnnotation(Digits.class)) != null) {
-                int integer = digits.integer();
-                int fraction = digits.fraction();
-                ss.append('(').append(integer + fraction).append(fraction > 0 ? "," + fraction : "").append(')');
-            } else if ((size = f.getDeclaredAnnotation(Size.class)) != null) {
-                ss.append('(').append(size.max()).append(')');
+            if (precision > 0) {
+                s.append('(').append(precision).append(scale > 0 ? "," + scale : "").append(')');
+            } else if (length > 0) {
+                s.append('(').append(length).append(')');
             }
-            if (!suffix.contains(" CURRENT_TIMESTAMP")) {
-                ss.append((f.isAnnotationPresent(NotEmpty.class) || f.isAnnotationPresent(NotNull.class)) ? " NOT NULL" : "");
+            if (timestamp == null && notNull) {
+                s.append(" NOT NULL");
             }
-            ss.append(suffix);
-            return ss;
-        }).collect(Collectors.joining(", ")));
-        s.append(')');
-        return s.toString();
-    }
-
-    public String dropTable() {
-        return "DROP TABLE IF EXISTS " + getClass().getSimpleName();
-    }
-
-    public String selectAll() {
-        return "SELECT * FROM " + getClass().getSimpleName();
+            return s.append(suffix).toString();
+        }
     }
 }
@@ -1,18 +1,295 @@
 package zircon.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.inject.Produces;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 
+import zircon.data.Account;
+
+/**
+ * DBセッションの供給（SqlSessionFactoryは初回参照時に一度だけ作成、CDIではリクエスト単位のセッションとマッパーを注入）
+ */
+@ApplicationScoped
 public class Producer {
 
-    static SqlSessionFactory factory;
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(Producer.class.getName());
+
+    /**
+     * SqlSessionFactoryの保持（クラスの初期化で一度だけ作成されることを保証）
+     */
+    static class Holder {
+        static final SqlSessionFactory factory = build();
+    }
 
+    /**
+     * @return SqlSessionFactory
+     */
+    public static SqlSessionFactory factory() {
+        return Holder.factory;
+    }
+
+    /**
+     * @return セッション
+     */
     public static SqlSession openSession() {
-        if (factory == null) {
-            factory = new SqlSessionFactoryBuilder()
-                    .build(Thread.currentThread().getContextClassLoader().getResourceAsStream("mybatis-config.xml"));
+        return Holder.factory.openSession();
+    }
+
+    /**
+     * リクエスト単位のセッション（最初のメソッド呼び出しで開く）
+     * @param transaction リクエストのセッション
+     * @return セッション
+     */
+    @Produces
+    @RequestScoped
+    static SqlSession session(Transaction transaction) {
+        return transaction.session();
+    }
+
+    /**
+     * @param session リクエスト単位のセッション
+     * @return アカウントのマッパー
+     */
+    @Produces
+    static Account.Dao account(SqlSession session) {
+        return mapper(Account.Dao.class, session);
+    }
+
+    /**
+     * マッパーの作成（セッションは開かない）
+     * @param type マッパーのインタフェース
+     * @param session セッション
+     * @return マッパー
+     */
+    static <T> T mapper(Class<T> type, SqlSession session) {
+        return Holder.factory.getConfiguration().getMapper(type, session);
+    }
+
+    /**
+     * SqlSessionFactoryを作成し、接続プールの設定と統計情報の公開を行う
+     * @return SqlSessionFactory
+     */
+    static SqlSessionFactory build() {
+        SqlSessionFactory factory;
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream("mybatis-config.xml")) {
+            factory = new SqlSessionFactoryBuilder().build(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        pool(factory).ifPresent(pool -> {
+            configure(pool);
+            register(pool);
+        });
+        return factory;
+    }
+
+    /**
+     * @param factory SqlSessionFactory
+     * @return 接続プール（POOLED以外の場合は空）
+     */
+    static Optional<PooledDataSource> pool(SqlSessionFactory factory) {
+        DataSource dataSource = factory.getConfiguration().getEnvironment().getDataSource();
+        return dataSource instanceof PooledDataSource ? Optional.of((PooledDataSource) dataSource) : Optional.empty();
+    }
+
+    /**
+     * 接続プールの設定（システムプロパティ zircon.db.pool.maxActive, maxIdle, checkoutTime, timeToWait で指定、省略時はmybatis-config.xmlの設定）
+     * @param pool 接続プール
+     */
+    static void configure(PooledDataSource pool) {
+        Optional.ofNullable(Integer.getInteger("zircon.db.pool.maxActive")).ifPresent(pool::setPoolMaximumActiveConnections);
+        Optional.ofNullable(Integer.getInteger("zircon.db.pool.maxIdle")).ifPresent(pool::setPoolMaximumIdleConnections);
+        Optional.ofNullable(Integer.getInteger("zircon.db.pool.checkoutTime")).ifPresent(pool::setPoolMaximumCheckoutTime);
+        Optional.ofNullable(Integer.getInteger("zircon.db.pool.timeToWait")).ifPresent(pool::setPoolTimeToWait);
+        logger.info("connection pool: maxActive=" + pool.getPoolMaximumActiveConnections() + ", maxIdle="
+                + pool.getPoolMaximumIdleConnections() + ", checkoutTime=" + pool.getPoolMaximumCheckoutTime() + ", timeToWait="
+                + pool.getPoolTimeToWait());
+    }
+
+    /**
+     * 接続プールの統計情報をJMXに登録（zircon:type=ConnectionPool、登録済みの場合は置き換え）
+     * @param pool 接続プール
+     */
+    static void register(PooledDataSource pool) {
+        try {
+            ObjectName name = new ObjectName("zircon:type=ConnectionPool");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            // 再デプロイ前の登録は閉じたプールと古いクラスローダを参照しているため置き換える
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new Stats(pool), name);
+        } catch (JMException | SecurityException e) {
+            logger.log(Level.WARNING, "connection pool statistics not registered", e);
+        }
+    }
+
+    /**
+     * 終了（統計情報の登録を解除し、接続プールの接続を閉じる、アンデプロイ時に呼ぶ）
+     */
+    public static void shutdown() {
+        try {
+            ObjectName name = new ObjectName("zircon:type=ConnectionPool");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            logger.log(Level.WARNING, "connection pool statistics not unregistered", e);
+        }
+        pool(Holder.factory).ifPresent(PooledDataSource::forceCloseAll);
+    }
+
+    /**
+     * @return 接続プールの統計情報（POOLED以外の場合は空）
+     */
+    public static Optional<StatsMXBean> stats() {
+        return pool(Holder.factory).map(Stats::new);
+    }
+
+    /**
+     * 接続プールの統計情報
+     */
+    public interface StatsMXBean {
+
+        /**
+         * @return 使用中の接続数
+         */
+        int getActiveConnections();
+
+        /**
+         * @return 待機中の接続数
+         */
+        int getIdleConnections();
+
+        /**
+         * @return 接続の取得回数
+         */
+        long getRequestCount();
+
+        /**
+         * @return 接続の取得にかかった平均時間（ミリ秒）
+         */
+        long getAverageRequestTime();
+
+        /**
+         * @return 空きを待った回数
+         */
+        long getHadToWaitCount();
+
+        /**
+         * @return 空きを待った平均時間（ミリ秒）
+         */
+        long getAverageWaitTime();
+
+        /**
+         * @return 接続の平均使用時間（ミリ秒）
+         */
+        long getAverageCheckoutTime();
+
+        /**
+         * @return 使用時間の上限を超えて回収された接続数
+         */
+        long getClaimedOverdueConnectionCount();
+
+        /**
+         * @return 無効だった接続数
+         */
+        long getBadConnectionCount();
+    }
+
+    /**
+     * 接続プールの統計情報（参照するたびに現在の値を返す）
+     */
+    static class Stats implements StatsMXBean {
+
+        /**
+         * 接続プール
+         */
+        final PooledDataSource pool;
+
+        /**
+         * コンストラクタ
+         * @param pool 接続プール
+         */
+        Stats(PooledDataSource pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * @return 接続プールの状態
+         */
+        PoolState state() {
+            return pool.getPoolState();
+        }
+
+        @Override
+        public int getActiveConnections() {
+            return state().getActiveConnectionCount();
+        }
+
+        @Override
+        public int getIdleConnections() {
+            return state().getIdleConnectionCount();
+        }
+
+        @Override
+        public long getRequestCount() {
+            return state().getRequestCount();
+        }
+
+        @Override
+        public long getAverageRequestTime() {
+            return state().getAverageRequestTime();
+        }
+
+        @Override
+        public long getHadToWaitCount() {
+            return state().getHadToWaitCount();
+        }
+
+        @Override
+        public long getAverageWaitTime() {
+            return state().getAverageWaitTime();
+        }
+
+        @Override
+        public long getAverageCheckoutTime() {
+            return state().getAverageCheckoutTime();
+        }
+
+        @Override
+        public long getClaimedOverdueConnectionCount() {
+            return state().getClaimedOverdueConnectionCount();
+        }
+
+        @Override
+        public long getBadConnectionCount() {
+            return state().getBadConnectionCount();
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + getActiveConnections() + ", idle=" + getIdleConnections() + ", requests=" + getRequestCount()
+                    + ", waits=" + getHadToWaitCount() + ", averageWait=" + getAverageWaitTime() + "ms";
         }
-        return factory.openSession();
     }
 }
@@ -0,0 +1,82 @@
+package zircon.util;
+
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
+
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * リクエスト単位のセッション（最初に使用した時に開き、リクエストの終了時に閉じる）
+ */
+@RequestScoped
+public class Transaction {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(Transaction.class.getName());
+
+    /**
+     * 実行方法（null:mybatis-config.xmlの設定）
+     */
+    ExecutorType type;
+
+    /**
+     * セッション（開くまではnull）
+     */
+    SqlSession session;
+
+    /**
+     * {@link Transactional}の入れ子の深さ
+     */
+    int depth;
+
+    /**
+     * @return セッション
+     */
+    public SqlSession session() {
+        if (session == null)
+            session = type == null ? Producer.factory().openSession() : Producer.factory().openSession(type);
+        return session;
+    }
+
+    /**
+     * 開始
+     * @param batch 更新をまとめて送信するか
+     */
+    void begin(boolean batch) {
+        if (depth++ == 0 && batch) {
+            if (session == null)
+                type = ExecutorType.BATCH;
+            else
+                logger.warning("session already open, batch ignored");
+        }
+    }
+
+    /**
+     * 終了（最も外側の場合のみ確定または取消）
+     * @param commit 確定するか
+     */
+    void end(boolean commit) {
+        if (--depth == 0 && session != null) {
+            if (commit)
+                session.commit();
+            else
+                session.rollback();
+        }
+    }
+
+    /**
+     * リクエストの終了時に閉じる（確定していない更新は取消）
+     */
+    @PreDestroy
+    void close() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package zircon.util;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+
+/**
+ * {@link Transactional}の処理（beans.xmlで有効化）
+ */
+@Transactional
+@Interceptor
+public class TransactionInterceptor {
+
+    /**
+     * リクエストのセッション
+     */
+    @Inject
+    Transaction transaction;
+
+    /**
+     * @param context 呼び出し
+     * @return 戻り値
+     * @throws Exception 例外
+     */
+    @AroundInvoke
+    public Object around(InvocationContext context) throws Exception {
+        Method method = context.getMethod();
+        transaction.begin(Optional.ofNullable(method.getAnnotation(Transactional.class))
+                .orElseGet(() -> method.getDeclaringClass().getAnnotation(Transactional.class)).batch());
+        boolean commit = false;
+        try {
+            Object result = context.proceed();
+            commit = true;
+            return result;
+        } finally {
+            transaction.end(commit);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package zircon.util;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.enterprise.util.Nonbinding;
+import javax.interceptor.InterceptorBinding;
+
+/**
+ * メソッドの正常終了時にリクエストのセッションを確定、例外時は取消（入れ子の場合は最も外側で一度だけ）
+ */
+@Inherited
+@InterceptorBinding
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Transactional {
+
+    /**
+     * @return 更新をまとめて送信するか（セッションを開く前に指定した場合のみ有効）
+     */
+    @Nonbinding
+    boolean batch() default false;
+}
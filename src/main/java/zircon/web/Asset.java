@@ -0,0 +1,380 @@
+package zircon.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * 静的ファイル（初回参照時に内容、gzip圧縮した内容、Content-Type、ETag、更新日時を求めて保持し、以降はリソースを読まない）
+ * 大きなファイルはContent-Type、ETag、更新日時のみ保持し、内容は圧縮せず応答のたびにリソースから読む
+ */
+class Asset {
+
+    /**
+     * Cache-Control（システムプロパティ zircon.web.cacheControl で変更可、既定は毎回ETagで再検証）
+     */
+    static final String cacheControl = System.getProperty("zircon.web.cacheControl", "no-cache");
+
+    /**
+     * HTTP日付の形式
+     */
+    static final DateTimeFormatter httpDate = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * 読み込み済みのファイル（システムプロパティ zircon.web.assets で件数、zircon.web.assetSize で内容を保持する1ファイルの最大バイト数を変更可）
+     */
+    static final Cache assets = new Cache(Integer.getInteger("zircon.web.assets", 256),
+            Integer.getInteger("zircon.web.assetSize", 1024 * 1024));
+
+    /**
+     * リソース
+     */
+    final URL url;
+
+    /**
+     * 内容（最大バイト数を超える場合はnull、応答のたびにリソースから読む）
+     */
+    final byte[] bytes;
+
+    /**
+     * gzip圧縮した内容（小さくならない場合と最大バイト数を超える場合はnull）
+     */
+    final byte[] gzip;
+
+    /**
+     * Content-Type
+     */
+    final String contentType;
+
+    /**
+     * ETag（内容のSHA-256、引用符付き）
+     */
+    final String tag;
+
+    /**
+     * gzip圧縮した内容のETag
+     */
+    final String gzipTag;
+
+    /**
+     * 更新日時（秒単位）
+     */
+    final Instant lastModified;
+
+    /**
+     * コンストラクタ
+     * @param url リソース
+     * @throws IOException 読み込めない
+     */
+    Asset(URL url) throws IOException {
+        this(url, Integer.MAX_VALUE);
+    }
+
+    /**
+     * コンストラクタ（最大バイト数を超える場合は内容を保持せず圧縮もしない）
+     * @param url リソース
+     * @param maxSize 内容を保持する最大バイト数
+     * @throws IOException 読み込めない
+     */
+    Asset(URL url, int maxSize) throws IOException {
+        this.url = url;
+        URLConnection connection = url.openConnection();
+        MessageDigest digester = sha256();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0;) {
+                digester.update(buffer, 0, n);
+                if (out != null && out.size() + n > maxSize)
+                    out = null;
+                if (out != null)
+                    out.write(buffer, 0, n);
+            }
+        }
+        this.bytes = out == null ? null : out.toByteArray();
+        long modified = connection.getLastModified();
+        byte[] gzip = bytes == null ? null : gzip(bytes);
+        this.gzip = gzip != null && gzip.length < bytes.length ? gzip : null;
+        this.contentType = contentType(url);
+        String digest = Base64.getUrlEncoder().withoutPadding().encodeToString(digester.digest());
+        this.tag = '"' + digest + '"';
+        this.gzipTag = '"' + digest + "-gzip\"";
+        this.lastModified = Instant.ofEpochSecond((modified > 0 ? modified : System.currentTimeMillis()) / 1000);
+    }
+
+    /**
+     * @param base 基準のクラス
+     * @param file ファイル名（基準のクラスからの相対パス）
+     * @return ファイル（存在しない場合は空）
+     */
+    static Optional<Asset> get(Class<?> base, String file) {
+        return Optional.ofNullable(base.getResource(file)).map(assets::get);
+    }
+
+    /**
+     * @param header リクエストヘッダの値を返す関数（ない場合はnull）
+     * @return 応答（gzipを受け付ける場合は圧縮済みの内容、If-None-Match, If-Modified-Since に一致する場合は304）
+     */
+    Response response(UnaryOperator<String> header) {
+        boolean compressed = gzip != null && accepts(header.apply(HttpHeaders.ACCEPT_ENCODING), "gzip");
+        ResponseBuilder builder = notModified(header.apply(HttpHeaders.IF_NONE_MATCH), header.apply(HttpHeaders.IF_MODIFIED_SINCE),
+                compressed) ? Response.notModified()
+                        : Response.ok(compressed ? gzip : bytes != null ? bytes : (StreamingOutput) this::copy, contentType);
+        headers(compressed).forEach(builder::header);
+        return builder.build();
+    }
+
+    /**
+     * 保持していない内容をリソースから読んで出力
+     * @param out 出力先
+     * @throws IOException 読み込めない
+     */
+    void copy(OutputStream out) throws IOException {
+        try (InputStream in = url.openStream()) {
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * @param compressed gzip圧縮した内容か
+     * @return 応答ヘッダ（ETag, Last-Modified, Cache-Control, 圧縮した場合はContent-Encoding, 圧縮版がある場合はVary）
+     */
+    Map<String, String> headers(boolean compressed) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(HttpHeaders.ETAG, compressed ? gzipTag : tag);
+        headers.put(HttpHeaders.LAST_MODIFIED, httpDate.format(lastModified));
+        headers.put(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (compressed)
+            headers.put(HttpHeaders.CONTENT_ENCODING, "gzip");
+        if (gzip != null)
+            headers.put(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        return headers;
+    }
+
+    /**
+     * @param ifNoneMatch If-None-Matchヘッダ（null可）
+     * @param ifModifiedSince If-Modified-Sinceヘッダ（null可、If-None-Matchがある場合は無視）
+     * @param compressed gzip圧縮した内容か
+     * @return 304を返すか（ETagは弱い比較、日付が解釈できない場合は変更ありとする）
+     */
+    boolean notModified(String ifNoneMatch, String ifModifiedSince, boolean compressed) {
+        if (ifNoneMatch != null) {
+            String tag = compressed ? gzipTag : this.tag;
+            for (String item : ifNoneMatch.split(",")) {
+                String candidate = item.trim();
+                if (candidate.startsWith("W/"))
+                    candidate = candidate.substring(2);
+                if (candidate.equals("*") || candidate.equals(tag))
+                    return true;
+            }
+            return false;
+        }
+        if (ifModifiedSince != null) {
+            try {
+                return !lastModified.isAfter(Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince.trim())));
+            } catch (DateTimeException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param acceptEncoding Accept-Encodingヘッダ（null可）
+     * @param coding 符号化方式
+     * @return 受け付けるか（q=0は拒否、明示されていなければ*に従う）
+     */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null)
+            return false;
+        Boolean any = null;
+        for (String part : acceptEncoding.split(",")) {
+            String[] items = part.trim().split(";");
+            boolean accepted = true;
+            for (int i = 1; i < items.length; i++) {
+                String item = items[i].trim();
+                if (item.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(item.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            String name = items[0].trim();
+            if (name.equalsIgnoreCase(coding))
+                return accepted;
+            if (name.equals("*"))
+                any = accepted;
+        }
+        return any != null && any;
+    }
+
+    /**
+     * @param bytes 内容
+     * @return gzip圧縮した内容
+     * @throws IOException 圧縮できない
+     */
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes 内容
+     * @return SHA-256（BASE64URL）
+     */
+    static String digest(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sha256().digest(bytes));
+    }
+
+    /**
+     * @return SHA-256の計算
+     */
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param url リソース
+     * @return Content-Type（判定できない場合は拡張子から、それでも不明ならapplication/octet-stream）
+     */
+    static String contentType(URL url) {
+        String type = null;
+        try {
+            URI uri = url.toURI();
+            try {
+                type = Files.probeContentType(Paths.get(uri));
+            } catch (FileSystemNotFoundException e) {
+                try (FileSystem fs = FileSystems.newFileSystem(uri, Collections.<String, Object> emptyMap())) {
+                    type = Files.probeContentType(fs.provider().getPath(uri));
+                }
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // 判定できない場合は拡張子で判定
+        }
+        if (type == null)
+            type = URLConnection.guessContentTypeFromName(url.getPath());
+        return type == null ? MediaType.APPLICATION_OCTET_STREAM : type;
+    }
+
+    /**
+     * 読み込み済みのファイル（件数を超えたら最も長く参照されていないものから破棄、大きなファイルはETagなどの情報のみ保持）
+     */
+    static class Cache {
+
+        /**
+         * 最大件数
+         */
+        final int capacity;
+
+        /**
+         * 内容を保持する1ファイルの最大バイト数
+         */
+        final int maxSize;
+
+        /**
+         * 格納先（アクセス順、キーはリソースのURL文字列）
+         */
+        final Map<String, Asset> map;
+
+        /**
+         * コンストラクタ
+         * @param capacity 最大件数（0以下は保持しない）
+         * @param maxSize 内容を保持する1ファイルの最大バイト数
+         */
+        @SuppressWarnings("serial")
+        Cache(int capacity, int maxSize) {
+            this.capacity = capacity;
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<String, Asset>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Asset> eldest) {
+                    return size() > Cache.this.capacity;
+                }
+            };
+        }
+
+        /**
+         * ファイルを取得（保持していない場合は読み込んで格納）
+         * @param url リソース
+         * @return ファイル
+         */
+        Asset get(URL url) {
+            String key = url.toExternalForm();
+            Asset asset;
+            synchronized (map) {
+                asset = map.get(key);
+            }
+            if (asset != null)
+                return asset;
+            try {
+                asset = new Asset(url, maxSize); // 読み込みと圧縮はロック外で行う
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (capacity <= 0)
+                return asset;
+            synchronized (map) {
+                Asset old = map.putIfAbsent(key, asset);
+                return old == null ? asset : old;
+            }
+        }
+
+        /**
+         * @return 件数
+         */
+        int size() {
+            synchronized (map) {
+                return map.size();
+            }
+        }
+    }
+}
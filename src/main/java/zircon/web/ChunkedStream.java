@@ -0,0 +1,94 @@
+package zircon.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.container.AsyncResponse;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * 非同期応答への出力（最初の出力で応答を開始し、以降は書き込みごとにチャンクとして送信）
+ * 出力が始まるまでは応答は未確定のため、応答期限や例外を通常の応答として返せる
+ */
+class ChunkedStream extends OutputStream {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(ChunkedStream.class.getName());
+
+    /**
+     * 応答
+     */
+    final AsyncResponse response;
+
+    /**
+     * 送信中の応答（出力が始まるまではnull）
+     */
+    ChunkedOutput<byte[]> chunks;
+
+    /**
+     * コンストラクタ
+     * @param response 応答
+     */
+    ChunkedStream(AsyncResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * @return 応答を開始したか
+     */
+    boolean started() {
+        return chunks != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return;
+        if (chunks == null) {
+            ChunkedOutput<byte[]> chunks = new ChunkedOutput<>(byte[].class);
+            if (!response.resume(chunks))
+                throw new IOException("response already resumed");
+            this.chunks = chunks;
+        }
+        chunks.write(Arrays.copyOfRange(b, off, off + len));
+    }
+
+    /**
+     * 終了（出力がなかった場合は空の応答）
+     */
+    @Override
+    public void close() throws IOException {
+        if (chunks == null)
+            response.resume(new byte[0]);
+        else
+            chunks.close();
+    }
+
+    /**
+     * 異常終了（応答を開始する前なら例外を応答、開始後は送信済みの内容で打ち切り）
+     * @param e 例外
+     */
+    void abort(Throwable e) {
+        if (chunks == null) {
+            response.resume(e);
+            return;
+        }
+        logger.log(Level.WARNING, "script aborted after output started", e);
+        try {
+            chunks.close();
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "chunked output not closed", x);
+        }
+    }
+}
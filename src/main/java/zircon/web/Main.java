@@ -1,26 +1,32 @@
 package zircon.web;
 
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.math.BigDecimal;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystemNotFoundException;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.logging.Logger;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -29,15 +35,23 @@ import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
-import org.apache.ibatis.session.SqlSession;
-
 import zircon.Zircon;
+import zircon.Zircon.Dictionary;
 import zircon.data.Account;
+import zircon.data.Query;
 import zircon.util.Producer;
+import zircon.util.Transactional;
 
 @Path("")
+@RequestScoped
 public class Main {
 
+    /**
+     * アカウントのマッパー（リクエスト単位のセッションを使用）
+     */
+    @Inject
+    Account.Dao accounts;
+
     @Context
     HttpHeaders headers;
 
@@ -47,51 +61,134 @@ public class Main {
     @Context
     ResourceInfo info;
 
+    /**
+     * 送信されたスクリプトの実行制限（システムプロパティ zircon.web.steps, millis, depth, output で変更可）
+     */
+    static final Zircon.Limits limits = new Zircon.Limits(Long.getLong("zircon.web.steps", 10_000_000L),
+            Long.getLong("zircon.web.millis", 10_000L), Integer.getInteger("zircon.web.depth", 256),
+            Long.getLong("zircon.web.output", 10L * 1024 * 1024));
+
+    /**
+     * スクリプトの出力方法（評価結果は標準エラーに表示しない、バッファはシステムプロパティ zircon.web.buffer で変更可）
+     */
+    static final Zircon.Output output = new Zircon.Output(Integer.getInteger("zircon.web.buffer", 8 * 1024), Zircon.Output.Flush.BYTES,
+            false);
+
+    /**
+     * 実行専用スレッドで非同期に実行するか（システムプロパティ zircon.web.async=false でサーブレットスレッドで実行）
+     */
+    static final boolean async = !"false".equals(System.getProperty("zircon.web.async"));
+
+    /**
+     * スクリプト実行スレッド
+     */
+    static final ScriptExecutor executor = ScriptExecutor.standard();
+
+    /**
+     * スクリプトからのDB参照（query, next, each）を許可するか（システムプロパティ zircon.web.query=true で許可）
+     */
+    static final boolean query = Boolean.getBoolean("zircon.web.query");
+
+    /**
+     * 非同期実行の応答期限（ミリ秒、システムプロパティ zircon.web.timeout で変更可）
+     */
+    static final long timeout = Long.getLong("zircon.web.timeout", 15_000L);
+
     @GET
+    @Transactional
     public Object index() {
-        try (SqlSession s = Producer.openSession()) {
-            Account.Dao m = s.getMapper(Account.Dao.class);
-            m.drop();
-            m.create();
-            Account a = new Account();
-            a.name = "テスト";
-            a.login_id = "test";
-            m.save(a, true);
-            a.tall = BigDecimal.valueOf(185.1);
-            m.save(a, false);
-            return String.valueOf(m.selectAll().size());
-        }
+        Account a = Optional.ofNullable(accounts.selectByLogin_id("test")).orElseGet(Account::new);
+        a.name = "テスト";
+        a.login_id = "test";
+        accounts.save(a, false);
+        a.tall = BigDecimal.valueOf(185.1);
+        accounts.save(a, false);
+        return String.valueOf(accounts.count());
         // return file("index.html");
     }
 
-    String fileContentType(String file) {
-        try {
-            URI uri = getClass().getResource(file).toURI();
-            Logger.getGlobal().info(uri.toString());
-            try {
-                return Files.probeContentType(Paths.get(uri));
-            } catch (FileSystemNotFoundException e) {
-                try (FileSystem fs = FileSystems.newFileSystem(uri, Collections.<String, Object> emptyMap())) {
-                    return Files.probeContentType(fs.provider().getPath(uri));
-                }
-            }
-        } catch (IOException | URISyntaxException e) {
-            return MediaType.APPLICATION_OCTET_STREAM;
-        }
-    }
-
     @GET
     @Path("{file:.*}")
     public Object file(@PathParam("file") String file) {
-        return Optional.ofNullable(getClass().getResourceAsStream(file)).map(s -> Response.ok(s, fileContentType(file)).build())
+        return Asset.get(getClass(), file).map(a -> a.response(headers::getHeaderString))
                 .orElseGet(() -> Response.status(Status.NOT_FOUND).entity("Page not found: " + file).build());
     }
 
     @POST
-    @Produces(MediaType.TEXT_PLAIN)
-    public Object index(@FormParam("code") String code) {
-        return (StreamingOutput) out -> Zircon.run(code, m -> m.put("requestHeaders", Zircon.can(
-                n -> headers.getRequestHeaders().entrySet().stream().forEach(i -> n.put(i.getKey(), String.join(", ", i.getValue()))))),
-                new PrintStream(out));
+    @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+    @Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
+    public void index(@FormParam("code") String code, @Suspended AsyncResponse response) {
+        execute(response, (config, out) -> Zircon.run(code, config, out, Zircon.mode, limits, output));
+    }
+
+    /**
+     * リクエスト本体のスクリプトを読み込みながら実行（大きなスクリプトもソース全体を保持しない）
+     * @param body リクエスト本体（UTF-8）
+     * @param response 応答
+     */
+    @POST
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
+    public void index(InputStream body, @Suspended AsyncResponse response) {
+        execute(response, (config, out) -> Zircon.run(new InputStreamReader(body, StandardCharsets.UTF_8), config, out, limits, output));
+    }
+
+    /**
+     * 実行（非同期の場合は実行専用スレッドで実行し、出力を逐次チャンクとして応答）
+     * 応答期限は最初の出力までに適用し、出力開始後は実行制限（zircon.web.millis）で打ち切る
+     * @param response 応答
+     * @param script 初期設定と出力先を受け取って実行する処理
+     */
+    void execute(AsyncResponse response, BiConsumer<Consumer<Dictionary>, OutputStream> script) {
+        Consumer<Dictionary> config = config();
+        if (!async) {
+            response.resume((StreamingOutput) out -> run(script, config, out));
+            return;
+        }
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+        response.setTimeout(timeout, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(r -> {
+            Optional.ofNullable(task.get()).ifPresent(f -> f.cancel(true));
+            r.resume(Response.status(Status.SERVICE_UNAVAILABLE).entity("Script timed out").build());
+        });
+        try {
+            task.set(executor.submit(() -> {
+                ChunkedStream out = new ChunkedStream(response);
+                try {
+                    run(script, config, out);
+                    out.close();
+                } catch (Throwable e) {
+                    out.abort(e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            response.resume(Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).entity("Server busy").build());
+        }
+    }
+
+    /**
+     * 実行（DB参照が有効な場合は組み込み関数を設定し、実行の終了時にセッションを閉じる）
+     * @param script 初期設定と出力先を受け取って実行する処理
+     * @param config 初期設定
+     * @param out 出力先
+     */
+    static void run(BiConsumer<Consumer<Dictionary>, OutputStream> script, Consumer<Dictionary> config, OutputStream out) {
+        if (!query) {
+            script.accept(config, out);
+            return;
+        }
+        try (Query q = new Query(Producer.factory())) {
+            script.accept(config.andThen(q::install), out);
+        }
+    }
+
+    /**
+     * スクリプトの初期設定（リクエストヘッダは実行スレッドから参照できないため受付時に複写）
+     * @return 初期設定
+     */
+    Consumer<Dictionary> config() {
+        Map<String, String> requestHeaders = new LinkedHashMap<>();
+        headers.getRequestHeaders().entrySet().stream().forEach(i -> requestHeaders.put(i.getKey(), String.join(", ", i.getValue())));
+        return m -> m.put("requestHeaders", Zircon.can(n -> requestHeaders.forEach(n::put)));
     }
 }
@@ -0,0 +1,141 @@
+package zircon.web;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * スクリプト実行専用のスレッドプール（実行中と待機中の合計を制限し、超えた分は受け付けない）
+ */
+class ScriptExecutor {
+
+    /**
+     * ロガー
+     */
+    static final Logger logger = Logger.getLogger(ScriptExecutor.class.getName());
+
+    /**
+     * 実行スレッド
+     */
+    final ExecutorService executor;
+
+    /**
+     * 受付枠（実行中と待機中の合計）
+     */
+    final Semaphore permits;
+
+    /**
+     * 仮想スレッドを使用しているか
+     */
+    final boolean virtual;
+
+    /**
+     * コンストラクタ
+     * @param threads 同時実行数（仮想スレッドの場合は受付枠にのみ使用）
+     * @param queue 待機できる数
+     * @param virtual 仮想スレッドを使用するか（使用できないJDKではスレッドプール）
+     */
+    ScriptExecutor(int threads, int queue, boolean virtual) {
+        ExecutorService executor = virtual ? newVirtualThreadExecutor() : null;
+        this.virtual = executor != null;
+        this.executor = executor != null ? executor : newThreadPool(threads, queue);
+        this.permits = new Semaphore(threads + queue);
+    }
+
+    /**
+     * 既定の設定（システムプロパティ zircon.web.threads, queue, virtual で変更可）
+     */
+    static ScriptExecutor standard() {
+        return new ScriptExecutor(Integer.getInteger("zircon.web.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("zircon.web.queue", 64), Boolean.getBoolean("zircon.web.virtual"));
+    }
+
+    /**
+     * 実行を依頼
+     * @param task 処理
+     * @return 結果（受付枠がない場合は{@link RejectedExecutionException}）
+     */
+    Future<?> submit(Runnable task) {
+        if (!permits.tryAcquire())
+            throw new RejectedExecutionException("script executor saturated");
+        // 実行した場合は処理が実際に終わった時に戻し（取り消し後も割り込みを無視して動き続けることがある）、
+        // 開始前に取り消された場合のみdone()で戻す
+        AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<Void> future = new FutureTask<Void>(() -> {
+            if (!claimed.compareAndSet(false, true))
+                return;
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                if (claimed.compareAndSet(false, true))
+                    permits.release();
+            }
+        };
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * @return 空いている受付枠の数
+     */
+    int available() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * 終了（実行中のスクリプトには割り込み）
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 固定数のデーモンスレッドによるプール（待機数は受付枠でも制限するが、キューも同じ数に制限し超えた分は受け付けない）
+     * @param threads スレッド数
+     * @param queue 待機できる数
+     * @return プール
+     */
+    static ExecutorService newThreadPool(int threads, int queue) {
+        AtomicInteger count = new AtomicInteger();
+        BlockingQueue<Runnable> tasks = queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, tasks, r -> {
+            Thread thread = new Thread(r, "zircon-script-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 仮想スレッドのExecutor（Java 21以降、それ以外はnull）
+     * @return Executor
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warning("virtual threads unavailable, using thread pool: " + e);
+            return null;
+        }
+    }
+}
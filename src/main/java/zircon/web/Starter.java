@@ -1,12 +1,20 @@
 package zircon.web;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.ws.rs.ApplicationPath;
 
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.ServerProperties;
 import org.glassfish.jersey.server.TracingConfig;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
 
+import zircon.data.Account;
+import zircon.data.Migration;
 import zircon.util.LogFormatter;
+import zircon.util.Producer;
 
 @ApplicationPath("")
 public class Starter extends ResourceConfig {
@@ -19,11 +27,38 @@ public class Starter extends ResourceConfig {
         // ログ出力設定
         LogFormatter.setup();
 
+        // DB接続の準備（初回リクエストの集中で接続プールを重複して作成しないよう起動時に作成）
+        Producer.factory();
+
+        // テーブル定義の移行（作り直さず、不足している列と索引の追加、列の拡張のみ）
+        try {
+            Migration.migrate(Producer.factory(), Account.class);
+        } catch (RuntimeException e) {
+            Logger.getLogger(Starter.class.getName()).log(Level.WARNING, "migration failed", e);
+        }
+
         // リソースクラスのパッケージ
         packages("zircon");
 
         // レスポンスヘッダにログ表示
         property(ServerProperties.TRACING, TracingConfig.ALL.name());
+
+        // アンデプロイ時にスクリプト実行スレッドと接続プールを終了
+        register(new ContainerLifecycleListener() {
+            @Override
+            public void onStartup(Container container) {
+            }
+
+            @Override
+            public void onReload(Container container) {
+            }
+
+            @Override
+            public void onShutdown(Container container) {
+                Main.executor.shutdown();
+                Producer.shutdown();
+            }
+        });
     }
 
 // 単体で動作せる場合（pomのjersey-container-grizzly2-http, jersey-weld2-seを有効にしweld-servlet-coreを無効にする）
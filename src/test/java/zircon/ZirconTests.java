@@ -0,0 +1,348 @@
+package zircon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class ZirconTests extends Tester {{
+
+    group("コンパイル", () -> {
+        expect("同じソースは同じプログラム", () -> Zircon.compile("echo 1 + 2") == Zircon.compile("echo 1 + 2")).toEqual(true);
+        expect("キャッシュしたプログラムを再実行", () -> Zircon.get("echo 1 + 2") + Zircon.get("echo 1 + 2")).toEqual("3", "3", "");
+        expect("ヒット数が増える", () -> {
+            long hits = Zircon.programs.hits();
+            Zircon.compile("echo 4");
+            Zircon.compile("echo 4");
+            return Zircon.programs.hits() - hits;
+        }).toEqual(1L);
+        expect("上限を超えると古いものから削除", () -> {
+            Zircon.ProgramCache cache = new Zircon.ProgramCache(2, 100);
+            Zircon.Program a = cache.get("1");
+            cache.get("2");
+            cache.get("3");
+            return cache.size() + ":" + (cache.get("1") == a);
+        }).toEqual("2:false");
+        expect("複数スレッドから同時にコンパイルしても変換結果は1つ", () -> {
+            Zircon.Program program = new Zircon.Program("a : 1\necho a");
+            return IntStream.range(0, 64).parallel().mapToObj(i -> program.compiler()).distinct().count();
+        }).toEqual(1L);
+        expect("コンパイル実行でも引数は左から順に評価", () -> {
+            Zircon.register("join", method(String.class, "join", CharSequence.class, CharSequence[].class), null);
+            try {
+                return Zircon.get("echo join('-', a : 'x', a & 'y', a : 'z')", Zircon.Mode.COMPILER);
+            } finally {
+                Zircon.unregister("join");
+            }
+        }).toEqual("x-xy-z", "");
+    });
+
+    group("構文解析", () -> {
+        expect("演算子の優先順位", () -> Zircon.get("echo 1 + 2 * 3 - 4")).toEqual("3", "");
+        expect("数値の区切り文字", () -> Zircon.get("echo 1_000.5 * 2")).toEqual("2001.0", "");
+        expect("引用符のエスケープ", () -> Zircon.get("echo 'it''s'")).toEqual("it's", "");
+        expect("数値のメソッド呼び出し", () -> Zircon.get("1.echo")).toEqual("1", "");
+        expect("改行と;で文を区切る", () -> Zircon.get("\necho 1\n\necho 2; echo 3")).toEqual("1", "2", "3", "");
+        expect("閉じていない文字列は文法エラー", () -> {
+            try {
+                return Zircon.compile("echo 'abc");
+            } catch (RuntimeException e) {
+                return e.getMessage();
+            }
+        }).toEqual("expected ' (5文字目) 'abc");
+        expect("式の途中で終わると文法エラー", () -> {
+            try {
+                return Zircon.compile("echo 1 +");
+            } catch (RuntimeException e) {
+                return e.getMessage();
+            }
+        }).toEqual("excepted primitive (8文字目) ");
+        expect("トレース", () -> {
+            StringBuilder s = new StringBuilder();
+            Zircon.trace((event, position, ast) -> s.append(event).append(position).append(ast == null ? "" : "=" + ast).append(' '));
+            try {
+                new Zircon.Program("1");
+            } finally {
+                Zircon.trace(null);
+            }
+            return s.toString().trim();
+        }).toEqual("program0 statement0 simple0 expression0 prefix0 primitive0 number0 parsed0=ZrNumber[1]");
+        expect("読み込みながら字句解析（バッファより長い字句）", () -> {
+            String source = String.join("\n", scripts) + "; echo '" + String.join("", Collections.nCopies(100, "long")) + "'";
+            Zircon.Lexer whole = new Zircon.Lexer(source);
+            Zircon.Lexer stream = new Zircon.Lexer(new StringReader(source), 16);
+            for (Zircon.Token t; (t = whole.next()).kind != Zircon.Kind.END;) {
+                if (!t.toString().equals(stream.next().toString()))
+                    return t;
+            }
+            return stream.next().kind + " " + stream.buffer.length;
+        }).toEqual("END 512");
+        expect("読み込みながら実行", () -> Arrays.stream(scripts).filter(source -> !source.contains("$")).map(source -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                Zircon.run(new StringReader(source), null, new PrintStream(out), Zircon.Limits.NONE);
+            } catch (RuntimeException e) {
+                return e.getClass().getName() + ": " + e.getMessage();
+            }
+            return out.toString();
+        }).collect(Collectors.toList())).toEqual(Arrays.stream(scripts).filter(source -> !source.contains("$"))
+                .map(source -> outcome(source, Zircon.Mode.INTERPRETER)).collect(Collectors.toList()));
+        expect("読み込んだ文から順に実行", () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Reader reader = new Reader() {
+                Iterator<String> chunks = Arrays.asList("echo 1\n", "echo 2\n").iterator();
+
+                @Override
+                public int read(char[] buffer, int offset, int length) throws IOException {
+                    if (!chunks.hasNext())
+                        throw new IOException("broken");
+                    String chunk = chunks.next();
+                    chunk.getChars(0, chunk.length(), buffer, offset);
+                    return chunk.length();
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            try {
+                Zircon.run(reader, null, new PrintStream(out), Zircon.Limits.NONE);
+            } catch (UncheckedIOException e) {
+                return out + e.getCause().getMessage();
+            }
+            return out.toString();
+        }).toEqual("1", "broken");
+    });
+
+    group("演算子", () -> {
+        expect("代入", () -> Zircon.get("a : b : 2\necho a + b")).toEqual("4", "");
+        expect("比較", () -> Zircon.get("echo 1 < 2; echo 2 <= 1; echo 1 = 1.0; echo 1 <> 1; echo 'b' > 'a'; echo 2 >= 2"))
+                .toEqual("true", "false", "true", "false", "true", "true", "");
+        expect("andは左辺が偽なら右辺を評価しない", () -> Zircon.get("echo false and undefined(1)")).toEqual("false", "");
+        expect("orは左辺が真なら右辺を評価しない", () -> Zircon.get("echo true or undefined(1)")).toEqual("true", "");
+        expect("文字列連結", () -> Zircon.get("echo 'a' & (1 + 2) & 'b'")).toEqual("a3b", "");
+        expect("包含", () -> Zircon.get("echo 'b' in 'abc'; echo 'echo' in $; echo 'x' in $")).toEqual("true", "true", "false", "");
+        expect("同一", () -> Zircon.get("a : 'x'\necho a is a; echo 'x' is 'x'")).toEqual("true", "false", "");
+        expect("代入先がシンボル以外は文法エラー", () -> {
+            try {
+                return Zircon.compile("1 : 2");
+            } catch (RuntimeException e) {
+                return e.getMessage();
+            }
+        }).toEqual("expected symbol (5文字目) ");
+    });
+
+    group("数値", () -> {
+        expect("整数の演算", () -> Zircon.get("echo 6 / 3; echo 7 \\ 2; echo(-7 % 2); echo 2 ^ 10")).toEqual("2", "3", "-1", "1024", "");
+        expect("小数の演算", () -> Zircon.get("echo 1 / 4; echo 1.5 * 2; echo 2 ^ -1")).toEqual("0.25", "3.0", "0.5", "");
+        expect("割り切れない除算は丸める", () -> Zircon.get("echo 1 / 3")).toEqual("0.3333333333333333333333333333333333", "");
+        expect("34桁を超えても割り切れる除算は正確", () -> Zircon.get("echo 1 / 1152921504606846976; echo 1 / 3 * 3 = 1"))
+                .toEqual(new BigDecimal(1).divide(new BigDecimal(1L << 60)).toString(), "false", "");
+        expect("桁あふれはBigDecimalに昇格", () -> Zircon.get("echo 9223372036854775807 + 1; echo 2 ^ 64; echo(-9223372036854775807 - 2)"))
+                .toEqual("9223372036854775808", "18446744073709551616", "-9223372036854775809", "");
+        expect("整数と小数の比較", () -> Zircon.get("echo 1 = 1.0; echo 2 > 1.5")).toEqual("true", "true", "");
+        expect("小さい整数は生成しない", () -> Zircon.Arithmetic.add(1000L, 24L) == Zircon.Arithmetic.box(1024)).toEqual(true);
+        expect("0で割ると例外", () -> Arrays.stream(Zircon.Mode.values()).flatMap(mode -> Stream.of("echo 1 / 0", "echo 1.5 / 0")
+                .map(source -> {
+                    try {
+                        return Zircon.get(source, mode);
+                    } catch (ArithmeticException e) {
+                        return e.getClass().getSimpleName();
+                    }
+                })).collect(Collectors.toList())).toEqual(Collections.nCopies(4, "ArithmeticException"));
+    });
+
+    group("変数", () -> {
+        expect("外側の環境の変数を更新", () -> Arrays.stream(Zircon.Mode.values()).map(mode -> {
+            Zircon.World host = new Zircon.World(null);
+            host.put("a", BigDecimal.ONE);
+            Zircon.compile("a : a + 1", mode).run(new Zircon.World(host), mode);
+            return host.get("a").get();
+        }).collect(Collectors.toList())).toEqual(Arrays.asList(BigDecimal.valueOf(2), BigDecimal.valueOf(2)));
+        expect("添字を割り当てた変数を辞書として参照", () -> {
+            Zircon.Frame frame = Zircon.compile("x : 1; y : x", Zircon.Mode.COMPILER).compiler().newFrame();
+            frame.put("x", "a").put("z", "b");
+            return frame.get("x").get() + "" + frame.get("z").get() + frame.has("y") + frame.slots.keySet();
+        }).toEqual("abfalse[x, y]");
+        expect("共有の環境の変数への代入は実行ごとの環境に格納", () -> Arrays.stream(Zircon.Mode.values())
+                .map(mode -> Zircon.get("env : 1; echo env", mode) + Zircon.get("echo env is 1", mode)).collect(Collectors.toList()))
+                        .toEqual(Arrays.asList("1" + System.lineSeparator() + "false" + System.lineSeparator(),
+                                "1" + System.lineSeparator() + "false" + System.lineSeparator()));
+        expect("環境変数は実行間で共有", () -> Zircon.base.lookup("env") == Zircon.base.lookup("env")).toEqual(true);
+        expect("共有の環境は変更不可", () -> {
+            try {
+                return Zircon.base.put("x", 1);
+            } catch (UnsupportedOperationException e) {
+                return e.getMessage();
+            }
+        }).toEqual("read only: x");
+    });
+
+    group("実行制限", () -> {
+        expect("ステップ数の上限ちょうどは実行できる", () -> Arrays.stream(Zircon.Mode.values())
+                .map(mode -> limited("echo 1 + 2", mode, new Zircon.Limits(5, 0, 10, 100))).collect(Collectors.toList()))
+                        .toEqual(Arrays.asList("3" + System.lineSeparator(), "3" + System.lineSeparator()));
+        expect("ステップ数の上限を超えると中断", () -> Arrays.stream(Zircon.Mode.values())
+                .map(mode -> limited("echo 1 + 2", mode, new Zircon.Limits(4, 0, 10, 100))).collect(Collectors.toList()))
+                        .toEqual(Arrays.asList("steps", "steps"));
+        expect("出力バイト数の上限を超えると中断", () -> limited("echo 'abcdef'", Zircon.Mode.INTERPRETER, new Zircon.Limits(100, 0, 10, 3)))
+                .toEqual("output");
+        expect("呼び出しの深さの上限を超えると中断", () -> Arrays.stream(Zircon.Mode.values()).map(mode -> {
+            try {
+                Zircon.compile("f(1)", mode).run(m -> m.put("f",
+                        new Zircon.ZrFunction((Zircon.World) m, Zircon.compile("f(n)").statements.get(0), "n")), System.out, mode,
+                        new Zircon.Limits(Long.MAX_VALUE, 0, 10, Long.MAX_VALUE));
+                return "";
+            } catch (Zircon.LimitExceededException e) {
+                return e.limit;
+            }
+        }).collect(Collectors.toList())).toEqual(Arrays.asList("depth", "depth"));
+        expect("実行ごとの環境は共有の環境と実行制限を共有しない", () -> {
+            Zircon.World a = new Zircon.World(Zircon.base), b = new Zircon.World(Zircon.base);
+            a.governor.step();
+            return (Zircon.base.governor == null) + " " + (a.governor != b.governor) + " " + b.governor.steps + " "
+                    + (new Zircon.World(a).governor == a.governor);
+        }).toEqual("true true 0 true");
+    });
+
+    group("出力", () -> {
+        expect("辞書はキーの昇順に表示（格納順や実行方式によらない）", () -> Arrays.stream(Zircon.Mode.values()).map(mode -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Zircon.run("echo d", m -> m.put("d", Zircon.can(n -> n.put("c", 1L).put("bb", 2L).put("a", 3L))), new PrintStream(out),
+                    mode);
+            return out.toString();
+        }).distinct().collect(Collectors.toList()))
+                .toEqual(Collections.singletonList(String.join(System.lineSeparator(), "[", "a=3", "bb=2", "c=1", "]", "", "")));
+        expect("書き出す時機ごとの書き込み回数", () -> Arrays.stream(Zircon.Output.Flush.values()).map(flush -> {
+            List<String> writes = new ArrayList<>();
+            Zircon.run("echo 1; echo 'あ'", null, new OutputStream() {
+                @Override
+                public void write(int b) {
+                    writes.add(String.valueOf(b));
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writes.add(new String(b, off, len, "UTF-8").trim());
+                }
+            }, Zircon.Mode.INTERPRETER, Zircon.Limits.NONE, new Zircon.Output(1024, flush, false));
+            return flush + "" + writes;
+        }).collect(Collectors.toList())).toEqual(Arrays.asList("STATEMENT[1, あ]", "BYTES[1" + System.lineSeparator() + "あ]", "END[1"
+                + System.lineSeparator() + "あ]"));
+    });
+
+    group("ホスト関数", () -> {
+        expect("登録したメソッドを呼び出す", () -> {
+            Zircon.register("max", method(Math.class, "max", long.class, long.class), null);
+            try {
+                return Arrays.stream(Zircon.Mode.values()).map(mode -> Zircon.get("echo max(3, 5); echo max(9, 4)", mode))
+                        .collect(Collectors.toList());
+            } finally {
+                Zircon.unregister("max");
+            }
+        }).toEqual(Arrays.asList("5" + System.lineSeparator() + "9" + System.lineSeparator(),
+                "5" + System.lineSeparator() + "9" + System.lineSeparator()));
+        expect("可変長引数のメソッド", () -> {
+            Zircon.register("join", method(String.class, "join", CharSequence.class, CharSequence[].class), null);
+            try {
+                return Zircon.get("echo join('-', 'a', 'b', 'c', 'd')");
+            } finally {
+                Zircon.unregister("join");
+            }
+        }).toEqual("a-b-c-d", "");
+        expect("引数の数の誤り", () -> Arrays.stream(Zircon.Mode.values()).map(mode -> {
+            try {
+                return Zircon.get("echo(1, 2)", mode);
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }).collect(Collectors.toList())).toEqual(Collections.nCopies(2, "echo expects 1 arguments but 2"));
+        expect("初期設定で実行ごとに設定", () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Zircon.run("echo greet('world')",
+                    m -> m.put("greet", Zircon.function("greet", method(String.class, "concat", String.class), "hello ")),
+                    new PrintStream(out));
+            return out.toString();
+        }).toEqual("hello world" + System.lineSeparator());
+        expect("辞書の要素を参照し、ホスト関数から関数を呼び出す", () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Zircon.run("call(echo, row.name & row.tall)", m -> m.put("row", Zircon.can(n -> n.put("name", "a").put("tall", 170L)))
+                    .put("call", Zircon.function("call", method(Zircon.class, "call", Object.class, Object[].class), null)),
+                    new PrintStream(out));
+            return out.toString();
+        }).toEqual("a170" + System.lineSeparator());
+    });
+
+    group("インタプリタとコンパイラの結果が一致", () -> Arrays.stream(scripts).forEach(source -> expect(source,
+            () -> outcome(source, Zircon.Mode.COMPILER)).toEqual(outcome(source, Zircon.Mode.INTERPRETER))));
+}
+
+    /**
+     * 公開メソッドの取得
+     * @param type クラス
+     * @param name 名前
+     * @param parameters 引数の型
+     * @return メソッド
+     */
+    static Method method(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 比較用のスクリプト
+     */
+    static final String[] scripts = { "echo 1 + 2 * 3 - 4", "echo 2 ^ 10 \\ 3 % 5", "echo(-(1.5 - 2))", "echo not true",
+            "echo exists 1; echo empty 1", "echo 'a'\necho \"b\"", "(1 + 2).echo", "print 1; print 2", "echo(7)",
+            "if true { echo 1 } else { echo 2 }", "if false { echo 1 } ef true { echo 2 }", "if false { echo 1 }",
+            "if false { echo 1 } else { echo 3; echo 4 }", "return 5", "$.echo", "echo 1 / 0", "echo 1 + 'a'", "undefined(1)",
+            "a : 3\necho a * 2", "echo 1 < 2 and 2 <= 2", "echo 1 = 1.0; echo 1 <> 2", "echo 'a' & 1 & 'b'", "echo 'b' in 'abc'",
+            "echo false and undefined(1)", "echo true or undefined(1)", "echo false or 1 > 2", "echo 'x' in $", "echo 1 < 'a'",
+            "a : 1; b : a + 1; a : b * 10; echo a & b", "echo undefined", "echo.echo",
+            "echo 1 / 3; echo 2 ^ 70; echo 0 / 0", "echo 10 % 3 + 10 \\ 3 * 1.5" };
+
+    /**
+     * @param source ソース
+     * @param mode 実行方式
+     * @param limits 実行制限
+     * @return 標準出力または超えた制限の種類
+     */
+    static String limited(String source, Zircon.Mode mode, Zircon.Limits limits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Zircon.run(source, null, new PrintStream(out), mode, limits);
+            return out.toString();
+        } catch (Zircon.LimitExceededException e) {
+            return e.limit;
+        }
+    }
+
+    /**
+     * @param source ソース
+     * @param mode 実行方式
+     * @return 標準出力または例外
+     */
+    static String outcome(String source, Zircon.Mode mode) {
+        try {
+            return Zircon.get(source, mode);
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+}
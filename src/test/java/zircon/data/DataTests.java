@@ -0,0 +1,257 @@
+package zircon.data;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.validation.constraints.Digits;
+import javax.validation.constraints.Size;
+
+import zircon.Tester;
+import zircon.Zircon;
+
+public class DataTests extends Tester {{
+
+    group("SQL", () -> {
+        expect("INSERT（自動採番列と現在日時自動設定列を除く）", () -> Table.meta(Item.class).insert)
+                .toEqual("INSERT INTO Item(code, param_group, price) VALUES(#{data.code}, #{data.param_group}, #{data.price})");
+        expect("UPDATE（自動採番列で更新）", () -> Table.meta(Item.class).update)
+                .toEqual("UPDATE Item SET code = #{data.code}, param_group = #{data.param_group}, price = #{data.price} WHERE id = #{data.id}");
+        expect("nullの列を除いたUPDATE", () -> {
+            Item item = new Item();
+            item.id = 1;
+            item.price = BigDecimal.ONE;
+            return new Item().save(parameter("data", item, "all", false));
+        }).toEqual("UPDATE Item SET price = #{data.price} WHERE id = #{data.id}");
+        expect("自動採番値が0ならINSERT", () -> {
+            Item item = new Item();
+            item.code = "a";
+            return new Item().save(parameter("data", item, "all", false));
+        }).toEqual("INSERT INTO Item(code) VALUES(#{data.code})");
+        expect("自動採番列がなければUPSERT", () -> Table.meta(Setting.class).upsert).toEqual(
+                "INSERT INTO Setting(name, value) VALUES(#{data.name}, #{data.value}) ON DUPLICATE KEY UPDATE name = VALUES(name), value = VALUES(value)");
+        expect("自動採番列がなければUPDATEはない", () -> Table.meta(Setting.class).update).toEqual((Object) null);
+        expect("索引のある列で取得（列名順にAND）", () -> new Item().selectBy(parameter("price", 1, "code", "a")))
+                .toEqual("SELECT * FROM Item WHERE code = #{code} AND price = #{price}");
+        expect("selectByはMyBatisのparam1などを無視し、paramで始まる列は残す",
+                () -> new Item().selectBy(parameter("param_group", "g", "param1", "g")))
+                        .toEqual("SELECT * FROM Item WHERE param_group = #{param_group}");
+        expect("索引のない列はエラー", () -> {
+            try {
+                return Table.meta(Setting.class).selectBy(Arrays.asList("value"));
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }).toEqual("no index on Setting.value");
+        expect("ページ単位の取得", () -> Table.meta(Item.class).selectPage)
+                .toEqual("SELECT * FROM Item WHERE id > #{afterId} ORDER BY id LIMIT #{limit}");
+        expect("自動採番列がなければページ単位の取得はエラー", () -> {
+            try {
+                return Table.meta(Setting.class).byId();
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }).toEqual("no id column in Setting");
+        expect("指定した列のみ取得", () -> new Item().selectColumns(parameter("columns", Arrays.asList("code", "price"))))
+                .toEqual("SELECT code, price FROM Item");
+    });
+
+    group("索引", () -> {
+        expect("名前と定義", () -> Table.meta(Item.class).keys.stream().map(k -> k.definition).collect(Collectors.toList()))
+                .toEqual(Arrays.asList("UNIQUE KEY ux_Item_code (code)", "INDEX ix_Item_param_group (param_group)",
+                        "INDEX ix_Item_param_group_price (param_group, price)"));
+        expect("定義にない列はエラー", () -> {
+            try {
+                return new Table.Key(Table.meta(Item.class), false, "unknown");
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }).toEqual("no column unknown in Item");
+    });
+
+    group("移行", () -> {
+        expect("テーブルがなければCREATE TABLE", () -> Migration.plan(Table.meta(Setting.class), Collections.emptyMap(),
+                Collections.emptySet())).toEqual(Collections.singletonList(Table.meta(Setting.class).createTable));
+        expect("不足している列と索引を追加", () -> Migration.plan(Table.meta(Setting.class), live("name", "VARCHAR", 32, 0),
+                Collections.emptySet())).toEqual(Arrays.asList("ALTER TABLE Setting ADD COLUMN value VARCHAR(64)",
+                        "ALTER TABLE Setting ADD UNIQUE KEY ux_Setting_name (name)"));
+        expect("VARCHARとDECIMALを拡張", () -> Migration.plan(Table.meta(Item.class),
+                live("id", "BIGINT", 20, 0, "create_time", "TIMESTAMP", 19, 0, "update_time", "TIMESTAMP", 19, 0, "code",
+                        "VARCHAR", 16, 0, "param_group", "VARCHAR", 16, 0, "price", "DECIMAL", 5, 2),
+                indexes(Item.class)))
+                        .toEqual(Arrays.asList("ALTER TABLE Item MODIFY COLUMN code VARCHAR(32)",
+                                "ALTER TABLE Item MODIFY COLUMN price DECIMAL(7,2)"));
+        expect("縮小はしない", () -> Migration.plan(Table.meta(Item.class),
+                live("id", "BIGINT", 20, 0, "create_time", "TIMESTAMP", 19, 0, "update_time", "TIMESTAMP", 19, 0, "code",
+                        "VARCHAR", 255, 0, "param_group", "VARCHAR", 16, 0, "price", "DECIMAL", 10, 4),
+                indexes(Item.class))).toEqual(Collections.emptyList());
+    });
+
+    group("スクリプトからのDB参照", () -> {
+        expect("eachは1行ごとに評価ステップを数え、上限を超えると中断", () -> each(new Zircon.Limits(1000, 0, 10, Long.MAX_VALUE)))
+                .toEqual("steps");
+        expect("eachは割り込まれると中断", () -> {
+            Thread.currentThread().interrupt();
+            try {
+                return each(new Zircon.Limits(Long.MAX_VALUE, 0, 10, Long.MAX_VALUE));
+            } finally {
+                Thread.interrupted();
+            }
+        }).toEqual("interrupted");
+    });
+
+    group("キャッシュ", () -> {
+        expect("上限を超えると最も長く参照されていないものから破棄", () -> {
+            EntityCache cache = new EntityCache("test", 2, 0);
+            cache.putObject("a", 1);
+            cache.putObject("b", 2);
+            cache.getObject("a");
+            cache.putObject("c", 3);
+            return cache.getObject("a") + " " + cache.getObject("b") + " " + cache.getObject("c") + " " + cache.getEvictions();
+        }).toEqual("1 null 3 1");
+        expect("有効期限を過ぎたものは参照時に破棄", () -> {
+            EntityCache cache = new EntityCache("test", 2, 1);
+            cache.putObject("a", 1);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return cache.getObject("a") + " " + cache.getSize() + " " + cache.getExpirations();
+        }).toEqual("null 0 1");
+        expect("格納後や取得後に変更しても影響しない", () -> {
+            EntityCache cache = new EntityCache("test", 2, 0);
+            Item item = new Item();
+            item.code = "a";
+            cache.putObject("k", Collections.singletonList(item));
+            item.code = "b";
+            ((Item) ((List<?>) cache.getObject("k")).get(0)).code = "c";
+            return ((Item) ((List<?>) cache.getObject("k")).get(0)).code;
+        }).toEqual("a");
+        expect("ヒット率", () -> {
+            EntityCache cache = new EntityCache("test", 2, 0);
+            cache.putObject("a", 1);
+            cache.getObject("a");
+            cache.getObject("b");
+            return cache.getHitRatio();
+        }).toEqual(0.5);
+    });
+}
+
+    @Index({ "param_group", "price" })
+    public static class Item extends Table {
+
+        @Unique
+        @Size(max = 32)
+        public String code;
+
+        @Index
+        @Size(max = 16)
+        public String param_group;
+
+        @Digits(integer = 5, fraction = 2)
+        public BigDecimal price;
+    }
+
+    public static class Setting {
+
+        @Unique
+        @Size(max = 32)
+        public String name;
+
+        @Size(max = 64)
+        public String value;
+    }
+
+    /**
+     * 終わらない行カーソルをeachで読む
+     * @param limits 実行制限
+     * @return 中断した制限の種類
+     */
+    static String each(Zircon.Limits limits) {
+        Query query = new Query(null);
+        try {
+            Query.Rows rows = new Query.Rows(endless());
+            MethodHandle ignore = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+            Zircon.run("each(rows, ignore)", m -> {
+                query.install(m);
+                m.put("rows", rows);
+                m.put("ignore", Zircon.function("ignore", ignore));
+            }, new ByteArrayOutputStream(), Zircon.mode, limits, Zircon.Output.standard);
+            return "completed";
+        } catch (Zircon.LimitExceededException e) {
+            return e.limit;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return 1列の行を無限に返す結果
+     */
+    static ResultSet endless() {
+        ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(DataTests.class.getClassLoader(),
+                new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> method.getName().equals("getColumnCount") ? 1 : "n");
+        return (ResultSet) Proxy.newProxyInstance(DataTests.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getMetaData":
+                        return meta;
+                    case "next":
+                        return true;
+                    case "isClosed":
+                        return false;
+                    case "getObject":
+                        return 1L;
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @param keyValues キー, 値, ...
+     * @return パラメータ
+     */
+    static Map<String, Object> parameter(Object... keyValues) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * @param columns 列名, 型名, 桁数, 小数部の桁数, ...
+     * @return DBの列定義
+     */
+    static Map<String, Migration.Live> live(Object... columns) {
+        Map<String, Migration.Live> map = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length; i += 4) {
+            map.put((String) columns[i], new Migration.Live((String) columns[i + 1], (Integer) columns[i + 2], (Integer) columns[i + 3]));
+        }
+        return map;
+    }
+
+    /**
+     * @param type エンティティクラス
+     * @return 定義済みの索引名（小文字）
+     */
+    static Set<String> indexes(Class<?> type) {
+        return Table.meta(type).keys.stream().map(k -> k.name.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+    }
+}
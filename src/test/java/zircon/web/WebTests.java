@@ -0,0 +1,239 @@
+package zircon.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import zircon.Tester;
+
+public class WebTests extends Tester {{
+
+    group("静的ファイルの再検証", () -> {
+        expect("ETagは内容のSHA-256（引用符付き）", () -> {
+            Asset a = asset("abc");
+            return a.tag.equals('"' + Asset.digest("abc".getBytes(StandardCharsets.UTF_8)) + '"') + " " + a.tag.length();
+        }).toEqual("true 45");
+        expect("内容が同じならETagも同じ", () -> asset("abc").tag.equals(asset("abc").tag)).toEqual(true);
+        expect("内容が違えばETagも違う", () -> asset("abc").tag.equals(asset("abd").tag)).toEqual(false);
+        expect("Last-Modifiedは秒単位のHTTP日付", () -> asset("abc").headers(false).get("Last-Modified"))
+                .toEqual("Sun, 09 Sep 2001 01:46:40 GMT");
+        expect("ETagとCache-Control", () -> {
+            Asset a = asset("abc");
+            return a.headers(false).get("ETag").equals(a.tag) + " " + a.headers(false).get("Cache-Control");
+        }).toEqual("true no-cache");
+        expect("If-None-Matchが一致すれば304", () -> {
+            Asset a = asset("abc");
+            return a.notModified(a.tag, null, false);
+        }).toEqual(true);
+        expect("If-None-Matchは弱い比較、複数指定、*に対応", () -> {
+            Asset a = asset("abc");
+            return a.notModified("W/" + a.tag, null, false) + " " + a.notModified("\"x\", " + a.tag, null, false) + " "
+                    + a.notModified("*", null, false);
+        }).toEqual("true true true");
+        expect("If-None-Matchが一致しなければ200", () -> asset("abc").notModified("\"x\"", null, false)).toEqual(false);
+        expect("If-None-MatchがあればIf-Modified-Sinceは無視", () -> asset("abc").notModified("\"x\"",
+                "Sun, 09 Sep 2001 01:46:40 GMT", false)).toEqual(false);
+        expect("If-Modified-Since以降に更新されていなければ304", () -> {
+            Asset a = asset("abc");
+            return a.notModified(null, "Sun, 09 Sep 2001 01:46:40 GMT", false) + " "
+                    + a.notModified(null, "Mon, 10 Sep 2001 00:00:00 GMT", false);
+        }).toEqual("true true");
+        expect("If-Modified-Since以降に更新されていれば200", () -> asset("abc").notModified(null, "Sun, 09 Sep 2001 01:46:39 GMT",
+                false)).toEqual(false);
+        expect("解釈できない日付は更新ありとする", () -> asset("abc").notModified(null, "yesterday", false)).toEqual(false);
+        expect("条件がなければ200", () -> asset("abc").notModified(null, null, false)).toEqual(false);
+    });
+
+    group("静的ファイルの圧縮", () -> {
+        expect("Accept-Encodingがなければ圧縮しない", () -> Asset.accepts(null, "gzip")).toEqual(false);
+        expect("gzipを指定（大文字小文字は区別しない）", () -> Asset.accepts("deflate, GZIP", "gzip")).toEqual(true);
+        expect("q=0は拒否", () -> Asset.accepts("gzip;q=0", "gzip") + " " + Asset.accepts("gzip ; q=0.000", "gzip"))
+                .toEqual("false false");
+        expect("q=0でなければ受け付ける", () -> Asset.accepts("gzip;q=0.5", "gzip")).toEqual(true);
+        expect("*は明示されていない方式に適用", () -> Asset.accepts("*", "gzip") + " " + Asset.accepts("*;q=0", "gzip"))
+                .toEqual("true false");
+        expect("明示した指定は*より優先", () -> Asset.accepts("gzip;q=0, *", "gzip") + " " + Asset.accepts("*, gzip;q=0", "gzip")
+                + " " + Asset.accepts("gzip, *;q=0", "gzip")).toEqual("false false true");
+        expect("identityのみなら圧縮しない", () -> Asset.accepts("identity", "gzip")).toEqual(false);
+        expect("解釈できないqは拒否", () -> Asset.accepts("gzip;q=x", "gzip")).toEqual(false);
+        expect("圧縮した内容はgzipで展開すると元に戻る", () -> {
+            Asset a = asset(repeat("zircon ", 200));
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(a.gzip))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                for (int n; (n = in.read(buffer)) >= 0;) {
+                    out.write(buffer, 0, n);
+                }
+                return Arrays.equals(out.toByteArray(), a.bytes) + " " + (a.gzip.length < a.bytes.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toEqual("true true");
+        expect("圧縮した応答はContent-EncodingとVary、ETagは別", () -> {
+            Asset a = asset(repeat("zircon ", 200));
+            Map<String, String> headers = a.headers(true);
+            return headers.get("Content-Encoding") + " " + headers.get("Vary") + " " + headers.get("ETag").equals(a.gzipTag) + " "
+                    + a.gzipTag.equals(a.tag);
+        }).toEqual("gzip Accept-Encoding true false");
+        expect("圧縮版があれば圧縮しない応答にもVary", () -> {
+            Map<String, String> headers = asset(repeat("zircon ", 200)).headers(false);
+            return headers.get("Content-Encoding") + " " + headers.get("Vary");
+        }).toEqual("null Accept-Encoding");
+        expect("圧縮版のETagで再検証", () -> {
+            Asset a = asset(repeat("zircon ", 200));
+            return a.notModified(a.gzipTag, null, true) + " " + a.notModified(a.tag, null, true) + " " + a.notModified(a.gzipTag, null, false);
+        }).toEqual("true false false");
+        expect("小さくならない場合は圧縮版を持たずVaryもない", () -> {
+            Asset a = asset("abc");
+            Map<String, String> headers = a.headers(false);
+            return a.gzip + " " + headers.containsKey("Vary") + " " + headers.containsKey("Content-Encoding");
+        }).toEqual("null false false");
+        expect("圧縮できない内容は圧縮版を持たない", () -> {
+            byte[] random = new byte[4096];
+            new Random(1).nextBytes(random);
+            try {
+                Path path = Files.createTempFile("asset", ".bin");
+                path.toFile().deleteOnExit();
+                Files.write(path, random);
+                return new Asset(path.toUri().toURL()).gzip;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toEqual((Object) null);
+    });
+
+    group("スクリプト実行スレッド", () -> {
+        expect("取り消しても実行中の処理が終わるまで受付枠を戻さない、開始前の取り消しはすぐ戻す", () -> {
+            ScriptExecutor executor = new ScriptExecutor(1, 1, false);
+            CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+            try {
+                Future<?> running = executor.submit(() -> {
+                    started.countDown();
+                    while (release.getCount() > 0) {
+                        Thread.yield(); // 割り込みを無視するホスト関数
+                    }
+                });
+                Future<?> queued = executor.submit(() -> {
+                });
+                started.await();
+                String before = executor.available() + "";
+                queued.cancel(true);
+                running.cancel(true);
+                String cancelled = executor.available() + "";
+                release.countDown();
+                for (int i = 0; i < 1000 && executor.available() < 2; i++) {
+                    Thread.sleep(1);
+                }
+                return before + " " + cancelled + " " + executor.available();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                release.countDown();
+                executor.shutdown();
+            }
+        }).toEqual("0 1 2");
+        expect("受付枠を超えると受け付けない", () -> {
+            ScriptExecutor executor = new ScriptExecutor(1, 0, false);
+            CountDownLatch release = new CountDownLatch(1);
+            try {
+                executor.submit(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                executor.submit(() -> {
+                });
+                return "accepted";
+            } catch (RejectedExecutionException e) {
+                return e.getMessage();
+            } finally {
+                release.countDown();
+                executor.shutdown();
+            }
+        }).toEqual("script executor saturated");
+    });
+
+    group("静的ファイルのキャッシュ", () -> {
+        expect("同じファイルは同じインスタンス", () -> {
+            Asset.Cache cache = new Asset.Cache(2, 1024);
+            URL url = url("abc");
+            return cache.get(url) == cache.get(url);
+        }).toEqual(true);
+        expect("上限を超えると古いものから破棄", () -> {
+            Asset.Cache cache = new Asset.Cache(2, 1024);
+            URL a = url("a"), b = url("b"), c = url("c");
+            Asset first = cache.get(a);
+            cache.get(b);
+            cache.get(c);
+            return cache.size() + " " + (cache.get(a) == first);
+        }).toEqual("2 false");
+        expect("大きなファイルは内容を持たずETagなどを保持", () -> {
+            Asset.Cache cache = new Asset.Cache(2, 4);
+            URL url = url("abcde");
+            Asset a = cache.get(url);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                a.copy(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return (cache.get(url) == a) + " " + a.bytes + " " + a.gzip + " "
+                    + a.tag.equals('"' + Asset.digest("abcde".getBytes(StandardCharsets.UTF_8)) + '"') + " " + out;
+        }).toEqual("true null null true abcde");
+        expect("上限ちょうどのファイルは内容を保持", () -> new Asset.Cache(2, 5).get(url("abcde")).bytes.length).toEqual(5);
+    });
+}
+
+    /**
+     * @param content 内容
+     * @return 内容を書き込んだ一時ファイル（更新日時は 2001-09-09T01:46:40.123Z）
+     */
+    static URL url(String content) {
+        try {
+            Path path = Files.createTempFile("asset", ".txt");
+            path.toFile().deleteOnExit();
+            Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(1_000_000_000_123L));
+            return path.toUri().toURL();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param s 文字列
+     * @param count 回数
+     * @return 繰り返した文字列
+     */
+    static String repeat(String s, int count) {
+        return String.join("", Collections.nCopies(count, s));
+    }
+
+    /**
+     * @param content 内容
+     * @return 内容を書き込んだ一時ファイル
+     */
+    static Asset asset(String content) {
+        try {
+            return new Asset(url(content));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}